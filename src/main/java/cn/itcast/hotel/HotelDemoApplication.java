@@ -3,13 +3,9 @@ package cn.itcast.hotel;
 import com.baomidou.mybatisplus.annotation.DbType;
 import com.baomidou.mybatisplus.extension.plugins.MybatisPlusInterceptor;
 import com.baomidou.mybatisplus.extension.plugins.inner.PaginationInnerInterceptor;
-import org.apache.http.HttpHost;
-import org.elasticsearch.client.RestClient;
-import org.elasticsearch.client.RestHighLevelClient;
 import org.mybatis.spring.annotation.MapperScan;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.context.annotation.Bean;
 
 @MapperScan("cn.itcast.hotel.mapper")
 @SpringBootApplication
@@ -19,10 +15,4 @@ public class HotelDemoApplication {
         SpringApplication.run(HotelDemoApplication.class, args);
     }
 
-    @Bean
-    public RestHighLevelClient client(){
-        return new RestHighLevelClient(RestClient.builder(
-                HttpHost.create("http://192.168.80.128:9200")));
-    }
-
 }
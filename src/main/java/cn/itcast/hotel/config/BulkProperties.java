@@ -0,0 +1,42 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * MQ消息批量写入索引库的参数
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.bulk")
+public class BulkProperties {
+    /**
+     * 缓冲区达到多少条操作时立即提交
+     */
+    private int maxActions = 500;
+    /**
+     * 单个bulk请求的最大字节数，超过后拆分成多个请求
+     */
+    private long maxBytes = 5 * 1024 * 1024;
+    /**
+     * 消息在缓冲区中最长停留时间(毫秒)
+     */
+    private long lingerMs = 200;
+    /**
+     * 批量查询数据库时，每次IN查询的最大id数量
+     */
+    private int dbBatchSize = 500;
+    /**
+     * 写入失败后第一次重新入队前的等待时间(毫秒)，之后每次翻倍
+     */
+    private long retryBackoffMs = 1000;
+    /**
+     * 重新入队前的最长等待时间(毫秒)
+     */
+    private long maxRetryBackoffMs = 30000;
+    /**
+     * 同一个酒店连续写入失败多少次后转入死信队列
+     */
+    private int maxAttempts = 5;
+}
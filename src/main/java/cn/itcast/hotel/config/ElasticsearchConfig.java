@@ -0,0 +1,123 @@
+package cn.itcast.hotel.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.HttpHost;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.elasticsearch.client.NodeSelector;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 索引库客户端：连接池、超时、keep-alive、压缩都从配置文件读取，连接池使用情况通过micrometer暴露
+ */
+@Configuration
+public class ElasticsearchConfig {
+
+    @Bean(destroyMethod = "close")
+    public RestHighLevelClient client(ElasticsearchProperties properties, MeterRegistry meterRegistry,
+                                      ObjectProvider<SniffOnFailureListener> sniffOnFailureListener) {
+        PoolingNHttpClientConnectionManager connectionManager = connectionManager(properties);
+        bindPoolMetrics(connectionManager, meterRegistry);
+
+        HttpHost[] hosts = properties.getHosts().stream().map(HttpHost::create).toArray(HttpHost[]::new);
+        RestClientBuilder builder = RestClient.builder(hosts)
+                .setCompressionEnabled(properties.isCompression())
+                .setRequestConfigCallback(config -> config
+                        .setConnectTimeout(properties.getConnectTimeoutMs())
+                        .setSocketTimeout(properties.getSocketTimeoutMs())
+                        .setConnectionRequestTimeout(properties.getConnectionRequestTimeoutMs()))
+                .setHttpClientConfigCallback(httpClient -> httpClient
+                        .setConnectionManager(connectionManager)
+                        .setKeepAliveStrategy((response, context) -> {
+                            long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                            //服务端没有返回Keep-Alive时为-1
+                            return keepAlive > 0 ? Math.min(keepAlive, properties.getKeepAliveMs()) : properties.getKeepAliveMs();
+                        }));
+        SniffOnFailureListener listener = sniffOnFailureListener.getIfAvailable();
+        if (listener != null) {
+            //节点列表由sniffer维护，不向专用master节点发送请求
+            builder.setFailureListener(listener).setNodeSelector(NodeSelector.SKIP_DEDICATED_MASTERS);
+        }
+        return new RestHighLevelClient(builder);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "hotel.elasticsearch.sniffer", name = "enabled", havingValue = "true")
+    public SniffOnFailureListener sniffOnFailureListener() {
+        return new SniffOnFailureListener();
+    }
+
+    /**
+     * 依赖client，关闭时先于client关闭
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "hotel.elasticsearch.sniffer", name = "enabled", havingValue = "true")
+    public Sniffer sniffer(RestHighLevelClient client, ElasticsearchProperties properties,
+                           SniffOnFailureListener sniffOnFailureListener) {
+        Sniffer sniffer = Sniffer.builder(client.getLowLevelClient())
+                .setSniffIntervalMillis(properties.getSniffer().getIntervalMs())
+                .setSniffAfterFailureDelayMillis(properties.getSniffer().getDelayAfterFailureMs())
+                .build();
+        sniffOnFailureListener.setSniffer(sniffer);
+        return sniffer;
+    }
+
+    //自己创建连接池，才能读取使用情况。
+    //设置了连接池后HttpAsyncClientBuilder不再处理SSL配置，https的连接方式需要在这里注册
+    private PoolingNHttpClientConnectionManager connectionManager(ElasticsearchProperties properties) {
+        IOReactorConfig.Builder reactorConfig = IOReactorConfig.custom()
+                .setConnectTimeout(properties.getConnectTimeoutMs())
+                .setSoTimeout(properties.getSocketTimeoutMs())
+                .setSoKeepAlive(true);
+        if (properties.getIoThreadCount() > 0) {
+            reactorConfig.setIoThreadCount(properties.getIoThreadCount());
+        }
+        Registry<SchemeIOSessionStrategy> schemes = RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register("http", NoopIOSessionStrategy.INSTANCE)
+                .register("https", SSLIOSessionStrategy.getDefaultStrategy())
+                .build();
+        try {
+            PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+                    new DefaultConnectingIOReactor(reactorConfig.build()), schemes);
+            connectionManager.setMaxTotal(properties.getMaxConnTotal());
+            connectionManager.setDefaultMaxPerRoute(properties.getMaxConnPerRoute());
+            return connectionManager;
+        } catch (IOReactorException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void bindPoolMetrics(PoolingNHttpClientConnectionManager connectionManager, MeterRegistry meterRegistry) {
+        poolGauge(meterRegistry, connectionManager, "elasticsearch.client.pool.leased", "正在使用的连接数", PoolStats::getLeased);
+        poolGauge(meterRegistry, connectionManager, "elasticsearch.client.pool.available", "空闲连接数", PoolStats::getAvailable);
+        poolGauge(meterRegistry, connectionManager, "elasticsearch.client.pool.pending", "等待连接的请求数", PoolStats::getPending);
+        poolGauge(meterRegistry, connectionManager, "elasticsearch.client.pool.max", "最大连接数", PoolStats::getMax);
+    }
+
+    private void poolGauge(MeterRegistry meterRegistry, PoolingNHttpClientConnectionManager connectionManager,
+                           String name, String description, ToDoubleFunction<PoolStats> value) {
+        Gauge.builder(name, connectionManager, manager -> value.applyAsDouble(manager.getTotalStats()))
+                .description(description)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,70 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 索引库客户端的连接参数
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.elasticsearch")
+public class ElasticsearchProperties {
+    /**
+     * 节点地址，多个节点时轮询
+     */
+    private List<String> hosts = new ArrayList<>();
+    /**
+     * 连接池最大连接数
+     */
+    private int maxConnTotal = 100;
+    /**
+     * 每个节点的最大连接数
+     */
+    private int maxConnPerRoute = 50;
+    /**
+     * IO线程数，0表示使用CPU核数
+     */
+    private int ioThreadCount = 0;
+    /**
+     * 建立连接超时(毫秒)
+     */
+    private int connectTimeoutMs = 1000;
+    /**
+     * 读取响应超时(毫秒)
+     */
+    private int socketTimeoutMs = 30000;
+    /**
+     * 从连接池获取连接超时(毫秒)
+     */
+    private int connectionRequestTimeoutMs = 1000;
+    /**
+     * 空闲连接保持时间(毫秒)，服务端返回的Keep-Alive更短时以服务端为准
+     */
+    private long keepAliveMs = 60000;
+    /**
+     * 是否gzip压缩请求和响应
+     */
+    private boolean compression = true;
+    /**
+     * 定期从集群获取节点列表
+     */
+    private Sniffer sniffer = new Sniffer();
+
+    @Data
+    public static class Sniffer {
+        private boolean enabled = false;
+        /**
+         * 获取节点列表的间隔(毫秒)
+         */
+        private int intervalMs = 300000;
+        /**
+         * 请求失败后，间隔多久再获取一次(毫秒)
+         */
+        private int delayAfterFailureMs = 60000;
+    }
+}
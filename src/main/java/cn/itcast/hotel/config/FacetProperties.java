@@ -0,0 +1,30 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 本地过滤项计数的参数
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.facet")
+public class FacetProperties {
+    /**
+     * 是否使用本地计数返回过滤项，关闭时全部查询索引库
+     */
+    private boolean localEnabled = false;
+    /**
+     * 启动时从数据库加载，每批读取的行数
+     */
+    private int loadBatchSize = 1000;
+    /**
+     * 与索引库聚合结果核对的间隔，小于等于0时不核对
+     */
+    private long reconcileIntervalMs = 300000;
+    /**
+     * 收到变更后等待多久(毫秒)再生成快照，期间的变更合并成一次，小于等于0时立即生成
+     */
+    private long rebuildDelayMs = 500;
+}
@@ -0,0 +1,30 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 重建索引完成后恢复的索引设置
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.index")
+public class IndexProperties {
+    /**
+     * 副本数，导入期间为0
+     */
+    private int numberOfReplicas = 1;
+    /**
+     * 刷新间隔，导入期间关闭刷新
+     */
+    private String refreshInterval = "1s";
+    /**
+     * 导入完成后force merge的段数
+     */
+    private int maxNumSegments = 1;
+    /**
+     * force merge和之后刷新的读取超时(毫秒)，大索引合并段需要很长时间，不能使用客户端默认的超时
+     */
+    private int forceMergeTimeoutMs = 3600000;
+}
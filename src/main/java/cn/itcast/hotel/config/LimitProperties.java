@@ -0,0 +1,59 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 查询索引库的并发限制：列表、过滤项、自动补全各自一个并发上限，按索引库的响应时间自适应调整(AIMD)
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.limit")
+public class LimitProperties {
+    /**
+     * 是否限制并发，关闭时请求全部发往索引库
+     */
+    private boolean enabled = true;
+    /**
+     * 列表的并发达到上限的这个比例后，先拒绝单独的过滤项和自动补全，带分面的列表不再聚合，把索引库留给列表
+     */
+    private double shedLowPriorityAt = 0.8;
+    /**
+     * 列表和带分面的列表
+     */
+    private Budget list = new Budget(50, 5, 200, 500);
+    /**
+     * 单独的过滤项，优先被拒绝
+     */
+    private Budget filters = new Budget(20, 2, 100, 500);
+    /**
+     * 自动补全，优先被拒绝
+     */
+    private Budget suggestion = new Budget(20, 2, 100, 200);
+
+    @Data
+    public static class Budget {
+        /**
+         * 启动时的并发上限
+         */
+        private int initialLimit;
+        private int minLimit;
+        private int maxLimit;
+        /**
+         * 往返时间超过这个值(毫秒)或失败时，上限乘以backoffRatio，否则并发用到上限的一半以上时加1
+         */
+        private long latencyThresholdMs;
+        private double backoffRatio = 0.9;
+
+        public Budget() {
+        }
+
+        public Budget(int initialLimit, int minLimit, int maxLimit, long latencyThresholdMs) {
+            this.initialLimit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+            this.latencyThresholdMs = latencyThresholdMs;
+        }
+    }
+}
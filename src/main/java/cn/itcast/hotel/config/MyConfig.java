@@ -3,6 +3,7 @@ package cn.itcast.hotel.config;
 import cn.itcast.hotel.constants.MqConstants;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.DirectExchange;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.TopicExchange;
 import org.springframework.context.annotation.Bean;
@@ -30,4 +31,16 @@ public class MyConfig {
     public Binding deleteQueueBinding(){
         return BindingBuilder.bind(deleteQueue()).to(topicExchange()).with(MqConstants.HOTEL_DELETE_KEY);
     }
+    @Bean
+    public DirectExchange deadLetterExchange(){
+        return new DirectExchange(MqConstants.HOTEL_DL_EXCHANGE,true,false);
+    }
+    @Bean
+    public Queue deadLetterQueue(){
+        return new Queue(MqConstants.HOTEL_DL_QUEUE,true);
+    }
+    @Bean
+    public Binding deadLetterQueueBinding(){
+        return BindingBuilder.bind(deadLetterQueue()).to(deadLetterExchange()).with(MqConstants.HOTEL_DL_KEY);
+    }
 }
@@ -0,0 +1,26 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 全量重建索引的参数
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.reindex")
+public class ReindexProperties {
+    /**
+     * 每次从数据库读取的行数，也是每个bulk请求的文档数
+     */
+    private int batchSize = 1000;
+    /**
+     * 同时执行的bulk请求数，内存中最多同时存在concurrency+1批数据
+     */
+    private int concurrency = 4;
+    /**
+     * 打印进度的间隔(毫秒)
+     */
+    private long progressIntervalMs = 10000;
+}
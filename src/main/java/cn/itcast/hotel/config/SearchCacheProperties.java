@@ -0,0 +1,34 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 列表、过滤项查询结果本地缓存的参数
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.cache")
+public class SearchCacheProperties {
+    /**
+     * 是否开启缓存
+     */
+    private boolean enabled = true;
+    /**
+     * 每种缓存最多保存的条数
+     */
+    private long maxSize = 10000;
+    /**
+     * 写入后多久过期(秒)
+     */
+    private long ttlSeconds = 30;
+    /**
+     * 查询被限流时返回的过期结果保留多久(秒)
+     */
+    private long staleTtlSeconds = 600;
+    /**
+     * 数据变更后，等索引库刷新完成再清空一次缓存(毫秒)，应不小于索引的refresh_interval
+     */
+    private long refreshDelayMs = 1500;
+}
@@ -0,0 +1,65 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 酒店查询的参数
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.search")
+public class SearchProperties {
+    /**
+     * 游标翻页时point in time的保持时间，两次翻页的间隔超过这个时间游标失效
+     */
+    private String pitKeepAlive = "1m";
+    /**
+     * 索引库往返时间超过这个值(毫秒)时记录慢查询日志和DSL，0表示不记录
+     */
+    private long slowQueryMs = 1000;
+    /**
+     * 合并同时进行的相同查询，只查询一次索引库
+     */
+    private boolean coalesce = true;
+    /**
+     * 按距离排序的查询按geohash网格缓存候选集
+     */
+    private GeoCell geoCell = new GeoCell();
+    /**
+     * 按距离排序的查询先限定范围，不够一页时扩大范围
+     */
+    private Nearby nearby = new Nearby();
+
+    @Data
+    public static class GeoCell {
+        private boolean enabled = false;
+        /**
+         * geohash长度，越长网格越小：5约4.9km*4.9km，6约1.2km*0.6km，7约153m*153m。
+         * 网格越小结果越容易精确，但命中缓存的请求越少
+         */
+        private int precision = 6;
+        /**
+         * 每个网格从索引库取离网格中心最近的多少条，超出候选集的分页查询索引库
+         */
+        private int candidates = 200;
+    }
+
+    @Data
+    public static class Nearby {
+        private boolean enabled = false;
+        /**
+         * 第一次查询的半径(km)
+         */
+        private double initialRadiusKm = 3;
+        /**
+         * 每次扩大的倍数，至少为2
+         */
+        private double growthFactor = 4;
+        /**
+         * 最大半径(km)，超过后不限定范围
+         */
+        private double maxRadiusKm = 50;
+    }
+}
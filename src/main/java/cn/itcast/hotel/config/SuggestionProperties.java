@@ -0,0 +1,30 @@
+package cn.itcast.hotel.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 本地自动补全的参数
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hotel.suggestion")
+public class SuggestionProperties {
+    /**
+     * 是否使用本地前缀树补全，关闭时直接查询索引库
+     */
+    private boolean localEnabled = false;
+    /**
+     * 返回的补全条数
+     */
+    private int size = 10;
+    /**
+     * 启动时从数据库加载，每批读取的行数
+     */
+    private int loadBatchSize = 1000;
+    /**
+     * 收到变更后等待多久(毫秒)再重新生成前缀树，期间的变更合并成一次，小于等于0时立即生成
+     */
+    private long rebuildDelayMs = 500;
+}
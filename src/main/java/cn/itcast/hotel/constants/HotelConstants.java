@@ -1,7 +1,60 @@
 package cn.itcast.hotel.constants;
 
 public class HotelConstants {
+    /**
+     * 查询使用的别名，指向当前版本的索引
+     */
+    public static final String HOTEL_ALIAS="hotel";
+    /**
+     * 版本化索引名前缀，例如hotel_v1、hotel_v2
+     */
+    public static final String HOTEL_INDEX_PREFIX="hotel_v";
+    /**
+     * 排序方式：按评价从高到低
+     */
+    public static final String SORT_BY_SCORE="score";
+    /**
+     * 排序方式：按价格从低到高
+     */
+    public static final String SORT_BY_PRICE="price";
+    /**
+     * 返回全部字段，默认只返回列表页展示的字段
+     */
+    public static final String VIEW_FULL="full";
+    /**
+     * 索引的完整定义，重建索引时使用。按价格排序存储，按价格排序的查询可以提前结束；
+     * name和all同时生成拼音，suggestion为自动补全使用的completion字段，需要ik和pinyin分词插件
+     */
     public static final String MAPPING_TEMPLATE="{\n" +
+            "  \"settings\": {\n" +
+            "    \"index\": {\n" +
+            "      \"sort.field\": \"price\",\n" +
+            "      \"sort.order\": \"asc\"\n" +
+            "    },\n" +
+            "    \"analysis\": {\n" +
+            "      \"analyzer\": {\n" +
+            "        \"text_anlyzer\": {\n" +
+            "          \"tokenizer\": \"ik_max_word\",\n" +
+            "          \"filter\": \"py\"\n" +
+            "        },\n" +
+            "        \"completion_analyzer\": {\n" +
+            "          \"tokenizer\": \"keyword\",\n" +
+            "          \"filter\": \"py\"\n" +
+            "        }\n" +
+            "      },\n" +
+            "      \"filter\": {\n" +
+            "        \"py\": {\n" +
+            "          \"type\": \"pinyin\",\n" +
+            "          \"keep_full_pinyin\": false,\n" +
+            "          \"keep_joined_full_pinyin\": true,\n" +
+            "          \"keep_original\": true,\n" +
+            "          \"limit_first_letter_length\": 16,\n" +
+            "          \"remove_duplicated_term\": true,\n" +
+            "          \"none_chinese_pinyin_tokenize\": false\n" +
+            "        }\n" +
+            "      }\n" +
+            "    }\n" +
+            "  },\n" +
             "  \"mappings\": {\n" +
             "    \"properties\": {\n" +
             "      \"id\": {\n" +
@@ -9,7 +62,8 @@ public class HotelConstants {
             "      },\n" +
             "      \"name\": {\n" +
             "        \"type\": \"text\",\n" +
-            "        \"analyzer\": \"ik_max_word\",\n" +
+            "        \"analyzer\": \"text_anlyzer\",\n" +
+            "        \"search_analyzer\": \"ik_smart\",\n" +
             "        \"copy_to\": \"all\"\n" +
             "      },\n" +
             "      \"address\": {\n" +
@@ -24,13 +78,16 @@ public class HotelConstants {
             "        \"type\": \"integer\"\n" +
             "      },\n" +
             "      \"brand\": {\n" +
-            "        \"type\": \"keyword\"\n" +
+            "        \"type\": \"keyword\",\n" +
+            "        \"eager_global_ordinals\": true\n" +
             "      },\n" +
             "      \"city\": {\n" +
-            "        \"type\": \"keyword\"\n" +
+            "        \"type\": \"keyword\",\n" +
+            "        \"eager_global_ordinals\": true\n" +
             "      },\n" +
             "      \"starName\": {\n" +
-            "        \"type\": \"keyword\"\n" +
+            "        \"type\": \"keyword\",\n" +
+            "        \"eager_global_ordinals\": true\n" +
             "      },\n" +
             "      \"business\": {\n" +
             "        \"type\": \"keyword\",\n" +
@@ -45,7 +102,12 @@ public class HotelConstants {
             "      },\n" +
             "      \"all\": {\n" +
             "        \"type\": \"text\",\n" +
-            "        \"analyzer\": \"ik_max_word\"\n" +
+            "        \"analyzer\": \"text_anlyzer\",\n" +
+            "        \"search_analyzer\": \"ik_smart\"\n" +
+            "      },\n" +
+            "      \"suggestion\": {\n" +
+            "        \"type\": \"completion\",\n" +
+            "        \"analyzer\": \"completion_analyzer\"\n" +
             "      }\n" +
             "    }\n" +
             "  }\n" +
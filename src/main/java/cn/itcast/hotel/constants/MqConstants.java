@@ -21,5 +21,17 @@ public class MqConstants {
      * 删除的RoutingKey
      */
     public final static String HOTEL_DELETE_KEY="hotel.delete";
+    /**
+     * 死信交换机，写入索引库失败且无法重试的消息转发到这里
+     */
+    public final static String HOTEL_DL_EXCHANGE="hotel.dl.direct";
+    /**
+     * 死信队列
+     */
+    public final static String HOTEL_DL_QUEUE="hotel.dl.queue";
+    /**
+     * 死信的RoutingKey
+     */
+    public final static String HOTEL_DL_KEY="hotel.dl";
 
 }
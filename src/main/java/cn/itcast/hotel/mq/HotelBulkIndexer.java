@@ -0,0 +1,244 @@
+package cn.itcast.hotel.mq;
+
+import cn.itcast.hotel.config.BulkProperties;
+import cn.itcast.hotel.constants.MqConstants;
+import cn.itcast.hotel.service.IHotelService;
+import com.rabbitmq.client.Channel;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把新增、删除消息攒成一批后用一个bulk请求写入索引库。
+ * 达到条数上限或等待时间后提交，同一个id只保留最后一次操作，bulk成功后才确认消息。
+ * 可重试的失败等待一段时间(指数退避)后再重新入队，同一个酒店连续失败maxAttempts次后转入死信队列。
+ * 失败次数记录在本地，消息被其他实例消费时重新计数。
+ */
+@Slf4j
+@Component
+public class HotelBulkIndexer {
+
+    @Autowired
+    private IHotelService hotelService;
+
+    @Autowired
+    private BulkProperties bulkProperties;
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    private final Object lock = new Object();
+    private Map<Long, PendingOperation> buffer = new LinkedHashMap<>();
+    private ScheduledFuture<?> lingerTask;
+    //单线程执行，保证批次之间按顺序写入
+    private ScheduledExecutorService executor;
+    //连续写入失败的次数，确认或转入死信队列后移除
+    private final Map<Long, Integer> attempts = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "hotel-bulk-indexer"));
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        executor.execute(this::flush);
+        executor.shutdown();
+        executor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 把一条消息加入缓冲区
+     * @param id 酒店id
+     * @param delete 是否是删除操作
+     * @param channel 接收消息的channel
+     * @param deliveryTag 消息的deliveryTag，bulk完成后用于确认
+     */
+    public void add(Long id, boolean delete, Channel channel, long deliveryTag) {
+        synchronized (lock) {
+            //同一个id只保留最后一次操作
+            PendingOperation operation = buffer.computeIfAbsent(id, PendingOperation::new);
+            operation.delete = delete;
+            operation.deliveries.add(new Delivery(channel, deliveryTag));
+            if (buffer.size() >= bulkProperties.getMaxActions()) {
+                Map<Long, PendingOperation> batch = drain();
+                executor.execute(() -> write(batch));
+            } else if (lingerTask == null) {
+                lingerTask = executor.schedule(this::flush, bulkProperties.getLingerMs(), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * 立即提交缓冲区中的所有操作
+     */
+    public void flush() {
+        Map<Long, PendingOperation> batch;
+        synchronized (lock) {
+            batch = drain();
+        }
+        write(batch);
+    }
+
+    private Map<Long, PendingOperation> drain() {
+        Map<Long, PendingOperation> batch = buffer;
+        buffer = new LinkedHashMap<>();
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        return batch;
+    }
+
+    private void write(Map<Long, PendingOperation> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Long> insertIds = new ArrayList<>();
+        List<Long> deleteIds = new ArrayList<>();
+        for (PendingOperation operation : batch.values()) {
+            (operation.delete ? deleteIds : insertIds).add(operation.id);
+        }
+        BulkResponse response;
+        try {
+            response = hotelService.bulk(insertIds, deleteIds);
+        } catch (Exception e) {
+            //整批失败，全部重试
+            log.error("批量写入索引库失败，{}条消息等待重试", batch.size(), e);
+            for (PendingOperation operation : batch.values()) {
+                retry(operation, e.toString());
+            }
+            return;
+        }
+        //同一个id可能对应多个索引(重建期间双写)，所有索引都成功才确认
+        Map<Long, BulkItemResponse> failures = new HashMap<>();
+        Set<Long> written = new HashSet<>();
+        for (BulkItemResponse item : response.getItems()) {
+            Long id = Long.valueOf(item.getId());
+            written.add(id);
+            BulkItemResponse failure = failures.get(id);
+            //优先按可重试处理
+            if (item.isFailed() && (failure == null || !isRetryable(failure.status()))) {
+                failures.put(id, item);
+            }
+        }
+        for (PendingOperation operation : batch.values()) {
+            BulkItemResponse failure = failures.get(operation.id);
+            if (!written.contains(operation.id)) {
+                //没有出现在响应中的操作，重试
+                retry(operation, "bulk响应中没有该文档");
+            } else if (failure == null) {
+                ack(operation);
+            } else if (isRetryable(failure.status())) {
+                log.warn("酒店{}写入索引库失败，等待重试：{}", operation.id, failure.getFailureMessage());
+                retry(operation, failure.getFailureMessage());
+            } else {
+                deadLetter(operation, failure.getFailureMessage());
+            }
+        }
+    }
+
+    private boolean isRetryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500;
+    }
+
+    /**
+     * 退避后重新入队，超过最大次数时转入死信队列
+     */
+    private void retry(PendingOperation operation, String reason) {
+        int attempt = attempts.merge(operation.id, 1, Integer::sum);
+        if (attempt >= bulkProperties.getMaxAttempts()) {
+            deadLetter(operation, "连续失败" + attempt + "次：" + reason);
+            return;
+        }
+        long backoff = Math.min(bulkProperties.getRetryBackoffMs() << Math.min(attempt - 1, 20),
+                bulkProperties.getMaxRetryBackoffMs());
+        try {
+            //等待期间消息不确认，占用prefetch，消费自然变慢
+            executor.schedule(() -> requeue(operation), backoff, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            //正在停止，直接重新入队
+            requeue(operation);
+        }
+    }
+
+    private void deadLetter(PendingOperation operation, String reason) {
+        log.error("酒店{}写入索引库失败，转入死信队列：{}", operation.id, reason);
+        try {
+            rabbitTemplate.convertAndSend(MqConstants.HOTEL_DL_EXCHANGE, MqConstants.HOTEL_DL_KEY, operation.id,
+                    message -> {
+                        message.getMessageProperties().setHeader("x-operation", operation.delete ? "delete" : "insert");
+                        message.getMessageProperties().setHeader("x-failure", reason);
+                        return message;
+                    });
+        } catch (Exception e) {
+            log.error("酒店{}转入死信队列失败，重新入队", operation.id, e);
+            requeue(operation);
+            return;
+        }
+        ack(operation);
+    }
+
+    private void ack(PendingOperation operation) {
+        attempts.remove(operation.id);
+        for (Delivery delivery : operation.deliveries) {
+            try {
+                delivery.channel.basicAck(delivery.deliveryTag, false);
+            } catch (IOException e) {
+                log.error("确认消息失败，deliveryTag={}", delivery.deliveryTag, e);
+            }
+        }
+    }
+
+    private void requeue(PendingOperation operation) {
+        for (Delivery delivery : operation.deliveries) {
+            try {
+                delivery.channel.basicNack(delivery.deliveryTag, false, true);
+            } catch (IOException e) {
+                log.error("拒绝消息失败，deliveryTag={}", delivery.deliveryTag, e);
+            }
+        }
+    }
+
+    private static class PendingOperation {
+        private final Long id;
+        private boolean delete;
+        //被合并的所有消息，写入完成后一起确认
+        private final List<Delivery> deliveries = new ArrayList<>(1);
+
+        private PendingOperation(Long id) {
+            this.id = id;
+        }
+    }
+
+    private static class Delivery {
+        private final Channel channel;
+        private final long deliveryTag;
+
+        private Delivery(Channel channel, long deliveryTag) {
+            this.channel = channel;
+            this.deliveryTag = deliveryTag;
+        }
+    }
+}
@@ -1,32 +1,36 @@
 package cn.itcast.hotel.mq;
 
 import cn.itcast.hotel.constants.MqConstants;
-import cn.itcast.hotel.service.IHotelService;
+import com.rabbitmq.client.Channel;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.AmqpHeaders;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Component;
 
 @Component
 public class HotrlListener {
 
     @Autowired
-    private IHotelService hotelService;
+    private HotelBulkIndexer bulkIndexer;
 
     /**
-     * 监听酒店新增或修改
+     * 监听酒店新增或修改，攒批后写入索引库，写入成功后再确认消息
      * @param id 酒店id
      */
-    @RabbitListener(queues = MqConstants.HOTEL_INSERT_QUEUE)
-    public void listnHotelInsterOrUpdate(Long id){
-        hotelService.insertById(id);
+    @RabbitListener(queues = MqConstants.HOTEL_INSERT_QUEUE, ackMode = "MANUAL")
+    public void listnHotelInsterOrUpdate(Long id, Channel channel,
+                                         @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag){
+        bulkIndexer.add(id, false, channel, deliveryTag);
     }
 
     /**
-     * 监听酒店新增或修改
+     * 监听酒店删除，攒批后写入索引库，写入成功后再确认消息
      * @param id 酒店id
      */
-    @RabbitListener(queues = MqConstants.HOTEL_DELETE_QUEUE)
-    public void listnHotelDeleteOrUpdate(Long id){
-        hotelService.deleteById(id);
+    @RabbitListener(queues = MqConstants.HOTEL_DELETE_QUEUE, ackMode = "MANUAL")
+    public void listnHotelDeleteOrUpdate(Long id, Channel channel,
+                                         @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag){
+        bulkIndexer.add(id, true, channel, deliveryTag);
     }
 }
@@ -0,0 +1,22 @@
+package cn.itcast.hotel.pojo;
+
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+public class FacetPageResult {
+    private Long total;
+    private List<HotelListDoc> hotels;
+    private Map<String, List<String>> filters;
+
+    public FacetPageResult() {
+    }
+
+    public FacetPageResult(Long total, List<HotelListDoc> hotels, Map<String, List<String>> filters) {
+        this.total = total;
+        this.hotels = hotels;
+        this.filters = filters;
+    }
+}
@@ -0,0 +1,20 @@
+package cn.itcast.hotel.pojo;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 酒店数据成功写入索引库后发布的事件，用于刷新本地缓存等
+ */
+@Data
+public class HotelChangedEvent {
+    /**
+     * 新增或修改的文档
+     */
+    private final List<HotelDoc> upserted;
+    /**
+     * 删除的酒店id
+     */
+    private final List<Long> deleted;
+}
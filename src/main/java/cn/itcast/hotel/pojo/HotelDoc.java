@@ -1,6 +1,7 @@
 package cn.itcast.hotel.pojo;
 
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
 
 import java.util.ArrayList;
@@ -9,21 +10,11 @@ import java.util.Collections;
 import java.util.List;
 
 @Data
+@EqualsAndHashCode(callSuper = true)
 @NoArgsConstructor
-public class HotelDoc {
-    private Long id;
-    private String name;
-    private String address;
-    private Integer price;
-    private Integer score;
+public class HotelDoc extends HotelListDoc {
     private String brand;
     private String city;
-    private String starName;
-    private String business;
-    private String location;
-    private String pic;
-    private Object distance;
-    private boolean isAD;
     private List<String> suggestion;
 
     public HotelDoc(Hotel hotel) {
@@ -0,0 +1,21 @@
+package cn.itcast.hotel.pojo;
+
+import lombok.Data;
+
+/**
+ * 列表页展示的酒店字段，查询时只从索引库取这些字段
+ */
+@Data
+public class HotelListDoc {
+    protected Long id;
+    protected String name;
+    protected String address;
+    protected Integer price;
+    protected Integer score;
+    protected String starName;
+    protected String business;
+    protected String location;
+    protected String pic;
+    protected Object distance;
+    protected boolean isAD;
+}
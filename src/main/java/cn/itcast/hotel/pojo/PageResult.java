@@ -7,12 +7,16 @@ import java.util.List;
 @Data
 public class PageResult {
     private Long total;
-    private List<HotelDoc> hotels;
+    private List<HotelListDoc> hotels;
+    /**
+     * 游标翻页时下一页的游标，没有下一页时为null
+     */
+    private String cursor;
 
     public PageResult() {
     }
 
-    public PageResult(Long total, List<HotelDoc> hotels) {
+    public PageResult(Long total, List<HotelListDoc> hotels) {
         this.total = total;
         this.hotels = hotels;
     }
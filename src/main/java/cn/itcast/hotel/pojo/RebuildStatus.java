@@ -0,0 +1,36 @@
+package cn.itcast.hotel.pojo;
+
+import lombok.Data;
+
+/**
+ * 后台重建索引任务的状态，state为RUNNING、SUCCEEDED或FAILED
+ */
+@Data
+public class RebuildStatus {
+    public static final String RUNNING = "RUNNING";
+    public static final String SUCCEEDED = "SUCCEEDED";
+    public static final String FAILED = "FAILED";
+
+    private String taskId;
+    private String state;
+    /**
+     * 新索引名，创建前为null
+     */
+    private String index;
+    private Long startTime;
+    private Long finishTime;
+    /**
+     * 导入结果，成功后才有
+     */
+    private ReindexResult result;
+    private String error;
+
+    public RebuildStatus() {
+    }
+
+    public RebuildStatus(String taskId, String state, Long startTime) {
+        this.taskId = taskId;
+        this.state = state;
+        this.startTime = startTime;
+    }
+}
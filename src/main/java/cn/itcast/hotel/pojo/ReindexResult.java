@@ -0,0 +1,23 @@
+package cn.itcast.hotel.pojo;
+
+import lombok.Data;
+
+@Data
+public class ReindexResult {
+    private String index;
+    private Long total;
+    private Long failed;
+    private Long tookMillis;
+    private Long docsPerSecond;
+
+    public ReindexResult() {
+    }
+
+    public ReindexResult(String index, Long total, Long failed, Long tookMillis) {
+        this.index = index;
+        this.total = total;
+        this.failed = failed;
+        this.tookMillis = tookMillis;
+        this.docsPerSecond = tookMillis > 0 ? total * 1000 / tookMillis : total;
+    }
+}
@@ -14,4 +14,12 @@ public class RequestParams {
     private Integer minPrice;
     private Integer maxPrice;
     private String location;
+    /**
+     * 游标翻页：第一页传空字符串，之后传上一页返回的cursor，为null时按page分页
+     */
+    private String cursor;
+    /**
+     * 返回的字段：list(默认)只返回列表页展示的字段，full返回全部字段
+     */
+    private String view;
 }
@@ -0,0 +1,10 @@
+package cn.itcast.hotel.service;
+
+/**
+ * 游标对应的point in time已经过期或被释放，需要从第一页重新查询
+ */
+public class CursorExpiredException extends RuntimeException {
+    public CursorExpiredException(Throwable cause) {
+        super("翻页游标已过期，请从第一页重新查询", cause);
+    }
+}
@@ -0,0 +1,22 @@
+package cn.itcast.hotel.service;
+
+import cn.itcast.hotel.pojo.FacetPageResult;
+import cn.itcast.hotel.pojo.PageResult;
+import cn.itcast.hotel.pojo.RequestParams;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 异步查询，等待索引库响应期间不占用线程
+ */
+public interface IHotelAsyncService {
+    CompletableFuture<PageResult> searchAsync(RequestParams params);
+
+    CompletableFuture<Map<String, List<String>>> filtersAsync(RequestParams params);
+
+    CompletableFuture<FacetPageResult> searchWithFacetsAsync(RequestParams params);
+
+    CompletableFuture<List<String>> getSuggestionsAsync(String prefix);
+}
@@ -0,0 +1,23 @@
+package cn.itcast.hotel.service;
+
+import cn.itcast.hotel.pojo.RebuildStatus;
+
+import java.util.List;
+
+public interface IHotelIndexService {
+    /**
+     * 在后台开始重建索引，已经在重建时返回正在执行的任务
+     */
+    RebuildStatus rebuild();
+
+    /**
+     * 最近一次重建的状态，没有重建过时返回null
+     */
+    RebuildStatus getRebuildStatus();
+
+    List<String> writeIndices();
+
+    void onDeleted(Long id);
+
+    void onUpserted(Long id);
+}
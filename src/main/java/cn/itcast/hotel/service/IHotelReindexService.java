@@ -0,0 +1,9 @@
+package cn.itcast.hotel.service;
+
+import cn.itcast.hotel.pojo.ReindexResult;
+
+public interface IHotelReindexService {
+    ReindexResult reindex(String index);
+
+    ReindexResult reindex(String index, boolean createOnly);
+}
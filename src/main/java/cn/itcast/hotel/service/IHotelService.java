@@ -1,21 +1,34 @@
 package cn.itcast.hotel.service;
 
+import cn.itcast.hotel.pojo.FacetPageResult;
 import cn.itcast.hotel.pojo.Hotel;
 import cn.itcast.hotel.pojo.PageResult;
 import cn.itcast.hotel.pojo.RequestParams;
 import com.baomidou.mybatisplus.extension.service.IService;
+import org.elasticsearch.action.bulk.BulkResponse;
 
+import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
 public interface IHotelService extends IService<Hotel> {
     PageResult search(RequestParams params);
 
+    /**
+     * 列表查询，把ES返回的_source直接写入输出流，不经过对象转换
+     */
+    void writeSearch(RequestParams params, OutputStream out);
+
     Map<String, List<String>> filters(RequestParams params);
 
+    FacetPageResult searchWithFacets(RequestParams params);
+
     List<String> getSuggestions(String prefix);
 
     void insertById(Long id);
 
     void deleteById(Long id);
+
+    BulkResponse bulk(Collection<Long> insertIds, Collection<Long> deleteIds);
 }
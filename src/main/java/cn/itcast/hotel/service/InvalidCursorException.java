@@ -0,0 +1,10 @@
+package cn.itcast.hotel.service;
+
+/**
+ * 翻页游标不是本服务返回的，或者已经被修改
+ */
+public class InvalidCursorException extends IllegalArgumentException {
+    public InvalidCursorException(String cursor, Throwable cause) {
+        super("无效的翻页游标：" + cursor, cause);
+    }
+}
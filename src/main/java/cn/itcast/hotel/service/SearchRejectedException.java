@@ -0,0 +1,10 @@
+package cn.itcast.hotel.service;
+
+/**
+ * 索引库的并发达到上限，且没有缓存或降级结果可以返回
+ */
+public class SearchRejectedException extends RuntimeException {
+    public SearchRejectedException(String endpoint) {
+        super("查询繁忙，请稍后重试：" + endpoint);
+    }
+}
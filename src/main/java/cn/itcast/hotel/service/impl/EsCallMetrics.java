@@ -0,0 +1,302 @@
+package cn.itcast.hotel.service.impl;
+
+import cn.itcast.hotel.config.SearchProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HttpResponse;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.HeapBufferedAsyncResponseConsumer;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 索引库调用的耗时统计，按接口(endpoint标签)分开记录：
+ * hotel.es.took为ES返回的took，hotel.es.round.trip为客户端从发送到收到并解析完响应的时间(差值主要是网络和排队)，
+ * hotel.es.parse为把响应转换为返回结果的时间，hotel.es.response.size为响应体字节数，hotel.es.errors为失败次数。
+ * 往返时间超过hotel.search.slow-query-ms时在cn.itcast.hotel.slowlog中记录请求的DSL
+ */
+@Slf4j(topic = "cn.itcast.hotel.slowlog")
+@Component
+public class EsCallMetrics {
+    public static final String LIST = "list";
+    public static final String NEARBY = "nearby";
+    public static final String COUNT = "count";
+    public static final String CURSOR = "cursor";
+    public static final String FILTERS = "filters";
+    public static final String FACETS = "facets";
+    public static final String SUGGESTION = "suggestion";
+    public static final String STREAM = "stream";
+    public static final String PIT = "pit";
+    public static final String BULK = "bulk";
+    public static final String REINDEX = "reindex";
+    public static final String RECONCILE = "reconcile";
+
+    //与客户端默认的响应缓冲区上限相同
+    private static final int BUFFER_LIMIT = 100 * 1024 * 1024;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private SearchProperties searchProperties;
+
+    private final Map<String, Meters> meters = new ConcurrentHashMap<>();
+    private final Map<String, RequestOptions> options = new ConcurrentHashMap<>();
+
+    /**
+     * 同步查询，handler把响应转换为结果，转换的时间记为解析时间
+     */
+    public <T> T search(RestHighLevelClient client, String endpoint, SearchRequest request,
+                        Function<SearchResponse, T> handler) throws IOException {
+        long start = System.nanoTime();
+        SearchResponse response;
+        try {
+            response = client.search(request, options(endpoint));
+        } catch (IOException | RuntimeException e) {
+            error(endpoint, e);
+            throw e;
+        }
+        return handle(endpoint, request, response, System.nanoTime() - start, handler);
+    }
+
+    /**
+     * 异步查询，handler在客户端的IO线程中执行，不能阻塞
+     */
+    public <T> CompletableFuture<T> searchAsync(RestHighLevelClient client, String endpoint, SearchRequest request,
+                                                Function<SearchResponse, T> handler) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long start = System.nanoTime();
+        //handler抛出的异常也会进入onFailure，记为失败
+        client.searchAsync(request, options(endpoint), ActionListener.wrap(
+                response -> future.complete(handle(endpoint, request, response, System.nanoTime() - start, handler)),
+                e -> {
+                    error(endpoint, e);
+                    future.completeExceptionally(e);
+                }));
+        return future;
+    }
+
+    public BulkResponse bulk(RestHighLevelClient client, BulkRequest request) throws IOException {
+        return bulk(client, BULK, request);
+    }
+
+    /**
+     * endpoint区分MQ增量写入(bulk)和全量导入(reindex)
+     */
+    public BulkResponse bulk(RestHighLevelClient client, String endpoint, BulkRequest request) throws IOException {
+        long start = System.nanoTime();
+        BulkResponse response;
+        try {
+            response = client.bulk(request, options(endpoint));
+        } catch (IOException | RuntimeException e) {
+            error(endpoint, e);
+            throw e;
+        }
+        long roundTrip = System.nanoTime() - start;
+        Meters bulk = meters(endpoint);
+        bulk.roundTrip.record(roundTrip, TimeUnit.NANOSECONDS);
+        bulk.took.record(response.getTook().millis(), TimeUnit.MILLISECONDS);
+        if (response.hasFailures()) {
+            for (BulkItemResponse item : response.getItems()) {
+                if (item.isFailed()) {
+                    errorCounter(endpoint, "BulkItemFailure").increment();
+                }
+            }
+        }
+        //bulk的请求体很大，只记录条数和大小
+        slowLog(endpoint, response.getTook().millis(), roundTrip,
+                () -> request.numberOfActions() + " actions, " + request.estimatedSizeInBytes() + " bytes");
+        return response;
+    }
+
+    /**
+     * 低级客户端的请求，没有took，只记录往返时间和响应大小
+     */
+    public Response perform(RestClient client, String endpoint, Request request) throws IOException {
+        request.setOptions(options(endpoint));
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = client.performRequest(request);
+        } catch (IOException | RuntimeException e) {
+            error(endpoint, e);
+            throw e;
+        }
+        performed(endpoint, request, System.nanoTime() - start);
+        return response;
+    }
+
+    /**
+     * 异步的低级客户端请求，非2xx的响应作为ResponseException失败
+     */
+    public CompletableFuture<Response> performAsync(RestClient client, String endpoint, Request request) {
+        request.setOptions(options(endpoint));
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        long start = System.nanoTime();
+        client.performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                performed(endpoint, request, System.nanoTime() - start);
+                future.complete(response);
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                error(endpoint, exception);
+                future.completeExceptionally(exception);
+            }
+        });
+        return future;
+    }
+
+    private void performed(String endpoint, Request request, long roundTrip) {
+        meters(endpoint).roundTrip.record(roundTrip, TimeUnit.NANOSECONDS);
+        slowLog(endpoint, -1, roundTrip, () -> {
+            try {
+                return request.getMethod() + " " + request.getEndpoint()
+                        + (request.getEntity() == null ? "" : " " + EntityUtils.toString(request.getEntity()));
+            } catch (IOException e) {
+                return request.getMethod() + " " + request.getEndpoint();
+            }
+        });
+    }
+
+    private <T> T handle(String endpoint, SearchRequest request, SearchResponse response, long roundTrip,
+                         Function<SearchResponse, T> handler) {
+        Meters endpointMeters = meters(endpoint);
+        endpointMeters.roundTrip.record(roundTrip, TimeUnit.NANOSECONDS);
+        endpointMeters.took.record(response.getTook().millis(), TimeUnit.MILLISECONDS);
+        slowLog(endpoint, response.getTook().millis(), roundTrip, () -> request.source().toString());
+        long start = System.nanoTime();
+        T result = handler.apply(response);
+        endpointMeters.parse.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    //DSL只在超过阈值时生成
+    private void slowLog(String endpoint, long tookMillis, long roundTripNanos, Supplier<String> request) {
+        long threshold = searchProperties.getSlowQueryMs();
+        long roundTripMillis = TimeUnit.NANOSECONDS.toMillis(roundTripNanos);
+        if (threshold > 0 && roundTripMillis >= threshold) {
+            log.warn("慢查询 endpoint={} took={}ms roundTrip={}ms request={}", endpoint, tookMillis, roundTripMillis,
+                    request.get());
+        }
+    }
+
+    private void error(String endpoint, Exception e) {
+        errorCounter(endpoint, e.getClass().getSimpleName()).increment();
+    }
+
+    private Counter errorCounter(String endpoint, String exception) {
+        return Counter.builder("hotel.es.errors")
+                .description("索引库调用失败次数")
+                .tags("endpoint", endpoint, "exception", exception)
+                .register(meterRegistry);
+    }
+
+    private Meters meters(String endpoint) {
+        return meters.computeIfAbsent(endpoint, Meters::new);
+    }
+
+    //每个接口的RequestOptions固定，只是响应由统计大小的consumer读取
+    private RequestOptions options(String endpoint) {
+        return options.computeIfAbsent(endpoint, key -> {
+            DistributionSummary size = meters(key).responseSize;
+            RequestOptions.Builder builder = RequestOptions.DEFAULT.toBuilder();
+            builder.setHttpAsyncResponseConsumerFactory(() -> new SizeRecordingConsumer(size));
+            return builder.build();
+        });
+    }
+
+    private class Meters {
+        private final Timer took;
+        private final Timer roundTrip;
+        private final Timer parse;
+        private final DistributionSummary responseSize;
+
+        Meters(String endpoint) {
+            took = Timer.builder("hotel.es.took")
+                    .description("ES返回的查询耗时")
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+            roundTrip = Timer.builder("hotel.es.round.trip")
+                    .description("客户端往返时间，包括网络、排队和客户端解析响应")
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+            parse = Timer.builder("hotel.es.parse")
+                    .description("响应转换为返回结果的时间")
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+            responseSize = DistributionSummary.builder("hotel.es.response.size")
+                    .description("响应体字节数，开启压缩时为压缩后的大小")
+                    .baseUnit("bytes")
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+        }
+    }
+
+    /**
+     * 与默认的consumer相同，把响应缓存在堆中，同时统计读取的字节数
+     */
+    private static class SizeRecordingConsumer extends HeapBufferedAsyncResponseConsumer {
+        private final DistributionSummary size;
+        private long bytes;
+
+        SizeRecordingConsumer(DistributionSummary size) {
+            super(BUFFER_LIMIT);
+            this.size = size;
+        }
+
+        @Override
+        protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+            super.onContentReceived(new ContentDecoder() {
+                @Override
+                public int read(ByteBuffer dst) throws IOException {
+                    int read = decoder.read(dst);
+                    if (read > 0) {
+                        bytes += read;
+                    }
+                    return read;
+                }
+
+                @Override
+                public boolean isCompleted() {
+                    return decoder.isCompleted();
+                }
+            }, ioctrl);
+        }
+
+        @Override
+        protected HttpResponse buildResult(HttpContext context) throws Exception {
+            size.record(bytes);
+            return super.buildResult(context);
+        }
+    }
+}
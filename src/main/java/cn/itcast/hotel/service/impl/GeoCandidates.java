@@ -0,0 +1,113 @@
+package cn.itcast.hotel.service.impl;
+
+import cn.itcast.hotel.pojo.HotelListDoc;
+import cn.itcast.hotel.pojo.PageResult;
+import org.elasticsearch.common.geo.GeoPoint;
+import org.elasticsearch.common.geo.GeoUtils;
+import org.elasticsearch.geometry.Rectangle;
+import org.elasticsearch.geometry.utils.Geohash;
+import org.springframework.beans.BeanUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 一个geohash网格的候选集：离网格中心最近的若干家酒店。
+ * 网格内任意位置的查询都用它在本地按精确距离重新排序。
+ * 网格内的点到网格中心的距离不超过radius。所以候选集外的酒店，到查询位置的距离不小于(最后一个候选到中心的距离 - radius)。
+ * 排在所需分页之前的候选都小于这个下界时结果是精确的，否则返回null，由调用方查询索引库。
+ */
+final class GeoCandidates {
+    private final long total;
+    private final List<HotelListDoc> hotels;
+    private final double[] lats;
+    private final double[] lons;
+    //候选集外的酒店离网格中心至少这么远(km)，候选集包含了全部结果时为无穷大
+    private final double outsideKm;
+    private final double radiusKm;
+
+    /**
+     * @param cell 网格
+     * @param limit 请求的候选条数
+     * @param page 按离网格中心的距离排序的结果，distance是到中心的距离(km)
+     */
+    GeoCandidates(String cell, int limit, PageResult page) {
+        this.total = page.getTotal();
+        this.hotels = page.getHotels();
+        this.lats = new double[hotels.size()];
+        this.lons = new double[hotels.size()];
+        for (int i = 0; i < hotels.size(); i++) {
+            String location = hotels.get(i).getLocation();
+            if (location == null) {
+                //没有位置的酒店排在最后
+                lats[i] = Double.NaN;
+                lons[i] = Double.NaN;
+                continue;
+            }
+            GeoPoint point = new GeoPoint(location);
+            lats[i] = point.getLat();
+            lons[i] = point.getLon();
+        }
+        if (hotels.size() < limit || hotels.isEmpty()) {
+            this.outsideKm = Double.POSITIVE_INFINITY;
+        } else {
+            this.outsideKm = ((Number) hotels.get(hotels.size() - 1).getDistance()).doubleValue();
+        }
+        GeoPoint center = center(cell);
+        Rectangle box = Geohash.toBoundingBox(cell);
+        double radius = 0;
+        for (double lat : new double[]{box.getMinLat(), box.getMaxLat()}) {
+            for (double lon : new double[]{box.getMinLon(), box.getMaxLon()}) {
+                radius = Math.max(radius, GeoUtils.arcDistance(center.getLat(), center.getLon(), lat, lon));
+            }
+        }
+        this.radiusKm = radius / 1000;
+    }
+
+    /**
+     * 位置所在的网格
+     */
+    static String cellOf(GeoPoint point, int precision) {
+        return Geohash.stringEncode(point.getLon(), point.getLat(), precision);
+    }
+
+    static GeoPoint center(String cell) {
+        return new GeoPoint(Geohash.decodeLatitude(cell), Geohash.decodeLongitude(cell));
+    }
+
+    /**
+     * 按到location的精确距离排序后取一页，无法保证精确时返回null
+     */
+    PageResult page(GeoPoint location, int from, int size) {
+        int n = hotels.size();
+        double[] distances = new double[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            //与索引库的geo_distance排序相同的算法，单位km
+            distances[i] = Double.isNaN(lats[i]) ? Double.POSITIVE_INFINITY
+                    : GeoUtils.arcDistance(location.getLat(), location.getLon(), lats[i], lons[i]) / 1000;
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> distances[i]));
+
+        int end = Math.min(from + size, n);
+        if (end < from + size && outsideKm != Double.POSITIVE_INFINITY) {
+            return null;
+        }
+        if (end > 0 && distances[order[end - 1]] > outsideKm - radiusKm) {
+            return null;
+        }
+        List<HotelListDoc> result = new ArrayList<>(Math.max(end - from, 0));
+        for (int i = from; i < end; i++) {
+            //缓存中的对象被多个请求共用，复制后再设置距离
+            HotelListDoc hotel = hotels.get(order[i]);
+            HotelListDoc copy = BeanUtils.instantiateClass(hotel.getClass());
+            BeanUtils.copyProperties(hotel, copy);
+            copy.setDistance(Double.isInfinite(distances[order[i]]) ? null : distances[order[i]]);
+            result.add(copy);
+        }
+        return new PageResult(total, result);
+    }
+}
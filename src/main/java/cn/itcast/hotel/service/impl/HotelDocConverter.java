@@ -0,0 +1,83 @@
+package cn.itcast.hotel.service.impl;
+
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelDoc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 批量写入和重建索引时把Hotel转换为HotelDoc，结果与new HotelDoc(hotel)相同。
+ * 逐个字符查找分隔符拆分商圈，集合按实际大小创建，减少每个文档的临时对象
+ */
+public final class HotelDocConverter {
+    private static final char SEPARATOR = '/';
+
+    private HotelDocConverter() {
+    }
+
+    public static HotelDoc convert(Hotel hotel) {
+        HotelDoc hotelDoc = new HotelDoc();
+        hotelDoc.setId(hotel.getId());
+        hotelDoc.setName(hotel.getName());
+        hotelDoc.setAddress(hotel.getAddress());
+        hotelDoc.setPrice(hotel.getPrice());
+        hotelDoc.setScore(hotel.getScore());
+        hotelDoc.setBrand(hotel.getBrand());
+        hotelDoc.setCity(hotel.getCity());
+        hotelDoc.setStarName(hotel.getStarName());
+        hotelDoc.setBusiness(hotel.getBusiness());
+        hotelDoc.setLocation(location(hotel.getLatitude(), hotel.getLongitude()));
+        hotelDoc.setPic(hotel.getPic());
+        hotelDoc.setSuggestion(suggestion(hotel));
+        return hotelDoc;
+    }
+
+    //"纬度, 经度"，缺失的值与字符串拼接一样写为"null"
+    private static String location(String latitude, String longitude) {
+        String lat = String.valueOf(latitude);
+        String lon = String.valueOf(longitude);
+        return new StringBuilder(lat.length() + 2 + lon.length()).append(lat).append(", ").append(lon).toString();
+    }
+
+    /**
+     * 商圈包含/时为品牌+拆分后的商圈，否则为名称+地址。
+     * 拆分规则与String.split("/")相同：保留中间和开头的空串，去掉末尾的空串
+     */
+    private static List<String> suggestion(Hotel hotel) {
+        String business = hotel.getBusiness();
+        int separators = business == null ? 0 : count(business);
+        if (separators == 0) {
+            return Arrays.asList(hotel.getName(), hotel.getAddress());
+        }
+        List<String> suggestion = new ArrayList<>(separators + 2);
+        suggestion.add(hotel.getBrand());
+        int start = 0;
+        int end = business.length();
+        //末尾的空串不要
+        while (end > 0 && business.charAt(end - 1) == SEPARATOR) {
+            end--;
+        }
+        for (int i = 0; i < end; i++) {
+            if (business.charAt(i) == SEPARATOR) {
+                suggestion.add(business.substring(start, i));
+                start = i + 1;
+            }
+        }
+        if (end > 0) {
+            suggestion.add(business.substring(start, end));
+        }
+        return suggestion;
+    }
+
+    private static int count(String business) {
+        int count = 0;
+        for (int i = 0; i < business.length(); i++) {
+            if (business.charAt(i) == SEPARATOR) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
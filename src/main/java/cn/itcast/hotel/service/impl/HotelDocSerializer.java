@@ -0,0 +1,71 @@
+package cn.itcast.hotel.service.impl;
+
+import cn.itcast.hotel.pojo.HotelDoc;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * 把HotelDoc写成索引库的文档：直接按UTF-8写入线程内复用的缓冲区，不生成中间的String。
+ * 输出与JSON.toJSONString(hotelDoc)相同：字段按名称排序，null不输出，isAD写为aD；
+ * distance只用于展示，不写入索引库
+ */
+public final class HotelDocSerializer {
+    private static final ThreadLocal<BytesStreamOutput> BUFFER = ThreadLocal.withInitial(() -> new BytesStreamOutput(1024));
+
+    private HotelDocSerializer() {
+    }
+
+    /**
+     * @return 可以直接传给IndexRequest.source的文档内容
+     */
+    public static BytesReference toSource(HotelDoc hotelDoc) {
+        BytesStreamOutput out = BUFFER.get();
+        out.reset();
+        try (XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out)) {
+            builder.startObject();
+            builder.field("aD", hotelDoc.isAD());
+            field(builder, "address", hotelDoc.getAddress());
+            field(builder, "brand", hotelDoc.getBrand());
+            field(builder, "business", hotelDoc.getBusiness());
+            field(builder, "city", hotelDoc.getCity());
+            if (hotelDoc.getId() != null) {
+                builder.field("id", hotelDoc.getId().longValue());
+            }
+            field(builder, "location", hotelDoc.getLocation());
+            field(builder, "name", hotelDoc.getName());
+            field(builder, "pic", hotelDoc.getPic());
+            if (hotelDoc.getPrice() != null) {
+                builder.field("price", hotelDoc.getPrice().intValue());
+            }
+            if (hotelDoc.getScore() != null) {
+                builder.field("score", hotelDoc.getScore().intValue());
+            }
+            field(builder, "starName", hotelDoc.getStarName());
+            List<String> suggestion = hotelDoc.getSuggestion();
+            if (suggestion != null) {
+                builder.startArray("suggestion");
+                for (String term : suggestion) {
+                    builder.value(term);
+                }
+                builder.endArray();
+            }
+            builder.endObject();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        //缓冲区要给下一个文档使用，复制出正好大小的数组交给请求
+        return new BytesArray(BytesReference.toBytes(out.bytes()));
+    }
+
+    private static void field(XContentBuilder builder, String name, String value) throws IOException {
+        if (value != null) {
+            builder.field(name, value);
+        }
+    }
+}
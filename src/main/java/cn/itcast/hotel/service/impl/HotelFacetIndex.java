@@ -0,0 +1,468 @@
+package cn.itcast.hotel.service.impl;
+
+import cn.itcast.hotel.config.FacetProperties;
+import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelChangedEvent;
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.pojo.RequestParams;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.carrotsearch.hppc.IntIntHashMap;
+import com.carrotsearch.hppc.LongIntHashMap;
+import com.carrotsearch.hppc.ObjectIntHashMap;
+import com.carrotsearch.hppc.cursors.IntIntCursor;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static cn.itcast.hotel.constants.HotelConstants.HOTEL_ALIAS;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.RECONCILE;
+
+/**
+ * 本地过滤项计数：按(城市, 品牌, 星级)组合统计酒店数量，不带条件或只有一个城市/品牌/星级条件的过滤项查询不需要访问索引库。
+ * 启动时从数据库加载，之后根据MQ写入成功的变更事件增量维护，组合有变化时生成新的快照整体替换，查询不加锁。
+ * 只修改价格等字段的变更不生成快照，短时间内的多次变更合并成一次。
+ * 定时与索引库的聚合结果核对，连续两次不一致时清空后重新加载，加载期间收到变更的酒店以变更为准。
+ */
+@Slf4j
+@Component
+public class HotelFacetIndex {
+    //每个字段的编号占10位，三个编号打包成一个int
+    private static final int BITS = 10;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int CITY = 0;
+    private static final int BRAND = 1;
+    private static final int STAR = 2;
+    private static final String[] NAMES = {"城市", "品牌", "星级"};
+    private static final String[] FIELDS = {"city", "brand", "starName"};
+    //与索引库聚合的size一致
+    private static final int FACET_SIZE = 100;
+
+    @Autowired
+    private HotelMapper hotelMapper;
+
+    @Autowired
+    private FacetProperties facetProperties;
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private EsCallMetrics esMetrics;
+
+    //字段取值 -> 编号，从1开始，0表示没有值，编号只在重新加载时回收
+    private final Dictionary[] dictionaries = {new Dictionary(), new Dictionary(), new Dictionary()};
+    //酒店id -> 组合，用于删除或修改时减去旧的组合
+    private final LongIntHashMap comboByHotel = new LongIntHashMap();
+    //组合 -> 酒店数量
+    private final IntIntHashMap counts = new IntIntHashMap();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private volatile boolean ready;
+    private int mismatches;
+    //加载期间收到变更的酒店，加载时跳过从数据库读到的旧数据，不加载时为null
+    private Set<Long> changedWhileLoading;
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 加载完成前返回false，调用方应该查询索引库
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 不带条件或只有一个城市/品牌/星级条件时返回过滤项，其他情况返回null，调用方应该查询索引库
+     */
+    public Map<String, List<String>> filters(RequestParams params) {
+        if (!ready || hasText(params.getKey())
+                || (params.getMinPrice() != null && params.getMaxPrice() != null)) {
+            return null;
+        }
+        int field = -1;
+        String value = null;
+        String[] conditions = {params.getCity(), params.getBrand(), params.getStarName()};
+        for (int i = 0; i < conditions.length; i++) {
+            if (hasText(conditions[i])) {
+                if (field >= 0) {
+                    return null;
+                }
+                field = i;
+                value = conditions[i];
+            }
+        }
+
+        Snapshot current = snapshot;
+        long[][] tallies = new long[NAMES.length][];
+        for (int i = 0; i < NAMES.length; i++) {
+            tallies[i] = new long[current.values[i].length];
+        }
+        //条件的取值不存在时，和索引库一样返回空的过滤项
+        int valueId = field < 0 ? 0 : indexOf(current.values[field], value);
+        if (valueId >= 0) {
+            for (int i = 0; i < current.combos.length; i++) {
+                int combo = current.combos[i];
+                if (field >= 0 && id(combo, field) != valueId) {
+                    continue;
+                }
+                for (int j = 0; j < NAMES.length; j++) {
+                    tallies[j][id(combo, j)] += current.counts[i];
+                }
+            }
+        }
+        Map<String, List<String>> result = new HashMap<>();
+        for (int i = 0; i < NAMES.length; i++) {
+            result.put(NAMES[i], top(current.values[i], tallies[i]));
+        }
+        return result;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!facetProperties.isLocalEnabled()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hotel-facet-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //后台加载，不影响启动
+        scheduler.execute(() -> {
+            try {
+                load();
+            } catch (Exception e) {
+                log.error("加载过滤项计数失败，继续使用索引库聚合", e);
+            }
+        });
+        long interval = facetProperties.getReconcileIntervalMs();
+        if (interval > 0) {
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    reconcile();
+                } catch (Exception e) {
+                    log.warn("核对过滤项计数失败", e);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 从数据库加载所有酒店的城市、品牌、星级
+     */
+    public void load() {
+        long start = System.currentTimeMillis();
+        int batchSize = facetProperties.getLoadBatchSize();
+        long lastId = 0;
+        int count = 0;
+        synchronized (this) {
+            changedWhileLoading = new HashSet<>();
+        }
+        try {
+            while (true) {
+                List<Hotel> hotels = hotelMapper.selectList(new QueryWrapper<Hotel>()
+                        .select("id", "city", "brand", "star_name")
+                        .gt("id", lastId).orderByAsc("id").last("limit " + batchSize));
+                synchronized (this) {
+                    for (Hotel hotel : hotels) {
+                        //查询之后收到的变更更新
+                        if (!changedWhileLoading.contains(hotel.getId())) {
+                            put(hotel.getId(), hotel.getCity(), hotel.getBrand(), hotel.getStarName());
+                        }
+                    }
+                }
+                count += hotels.size();
+                if (hotels.size() < batchSize) {
+                    break;
+                }
+                lastId = hotels.get(hotels.size() - 1).getId();
+            }
+        } catch (IllegalStateException e) {
+            log.warn("过滤项取值过多，不使用本地计数: {}", e.getMessage());
+            return;
+        } finally {
+            synchronized (this) {
+                changedWhileLoading = null;
+            }
+        }
+        rebuild();
+        ready = true;
+        log.info("过滤项计数加载完成，{}个酒店，{}个组合，耗时{}ms", count, snapshot.combos.length,
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 酒店写入索引库成功后，同步更新计数
+     */
+    @EventListener
+    public void onHotelChanged(HotelChangedEvent event) {
+        if (!facetProperties.isLocalEnabled()) {
+            return;
+        }
+        boolean changed = false;
+        synchronized (this) {
+            try {
+                for (Long id : event.getDeleted()) {
+                    changed |= remove(id);
+                    if (changedWhileLoading != null) {
+                        changedWhileLoading.add(id);
+                    }
+                }
+                for (HotelDoc hotelDoc : event.getUpserted()) {
+                    changed |= put(hotelDoc.getId(), hotelDoc.getCity(), hotelDoc.getBrand(), hotelDoc.getStarName());
+                    if (changedWhileLoading != null) {
+                        changedWhileLoading.add(hotelDoc.getId());
+                    }
+                }
+            } catch (IllegalStateException e) {
+                ready = false;
+                log.warn("过滤项取值过多，不再使用本地计数: {}", e.getMessage());
+                return;
+            }
+        }
+        if (changed) {
+            scheduleRebuild();
+        }
+    }
+
+    /**
+     * 与索引库不带条件的聚合结果核对。
+     * 刚写入的数据要等索引库刷新后才能聚合到，所以连续两次不一致才重新加载
+     */
+    public void reconcile() {
+        if (!ready) {
+            return;
+        }
+        SearchRequest request = new SearchRequest(HOTEL_ALIAS);
+        request.source().size(0);
+        for (int i = 0; i < NAMES.length; i++) {
+            request.source().aggregation(AggregationBuilders.terms(FIELDS[i]).field(FIELDS[i]).size(MASK + 1));
+        }
+        SearchResponse response;
+        try {
+            response = esMetrics.search(client, RECONCILE, request, Function.identity());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        Snapshot current = snapshot;
+        List<String> different = new ArrayList<>();
+        for (int i = 0; i < NAMES.length; i++) {
+            Map<String, Long> expected = new HashMap<>();
+            Terms terms = response.getAggregations().get(FIELDS[i]);
+            for (Terms.Bucket bucket : terms.getBuckets()) {
+                expected.put(bucket.getKeyAsString(), bucket.getDocCount());
+            }
+            if (!expected.equals(current.totals(i))) {
+                different.add(FIELDS[i]);
+            }
+        }
+        if (different.isEmpty()) {
+            mismatches = 0;
+            return;
+        }
+        if (++mismatches < 2) {
+            log.info("过滤项计数与索引库不一致: {}，下次核对时确认", different);
+            return;
+        }
+        log.warn("过滤项计数与索引库连续两次不一致: {}，重新加载", different);
+        mismatches = 0;
+        synchronized (this) {
+            ready = false;
+            comboByHotel.clear();
+            counts.clear();
+            //不再使用的取值也一起清除，避免编号一直增长
+            for (Dictionary dictionary : dictionaries) {
+                dictionary.clear();
+            }
+        }
+        load();
+    }
+
+    /**
+     * 组合没有变化时返回false
+     */
+    private boolean put(Long id, String city, String brand, String starName) {
+        int combo = dictionaries[CITY].idOf(city)
+                | dictionaries[BRAND].idOf(brand) << BITS
+                | dictionaries[STAR].idOf(starName) << (BITS * 2);
+        if (comboByHotel.containsKey(id) && comboByHotel.get(id) == combo) {
+            return false;
+        }
+        remove(id);
+        comboByHotel.put(id, combo);
+        counts.addTo(combo, 1);
+        return true;
+    }
+
+    private boolean remove(Long id) {
+        if (!comboByHotel.containsKey(id)) {
+            return false;
+        }
+        int combo = comboByHotel.remove(id);
+        if (counts.addTo(combo, -1) <= 0) {
+            counts.remove(combo);
+        }
+        return true;
+    }
+
+    //延迟rebuildDelayMs后生成，期间的变更由同一次生成处理
+    private void scheduleRebuild() {
+        long delay = facetProperties.getRebuildDelayMs();
+        if (scheduler == null || delay <= 0) {
+            rebuild();
+            return;
+        }
+        if (!rebuildScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            scheduler.schedule(() -> {
+                //先清除标记，生成期间的变更会再安排一次
+                rebuildScheduled.set(false);
+                rebuild();
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            rebuildScheduled.set(false);
+            rebuild();
+        }
+    }
+
+    private synchronized void rebuild() {
+        int[] combos = new int[counts.size()];
+        int[] comboCounts = new int[counts.size()];
+        int i = 0;
+        for (IntIntCursor cursor : counts) {
+            combos[i] = cursor.key;
+            comboCounts[i] = cursor.value;
+            i++;
+        }
+        String[][] values = new String[NAMES.length][];
+        for (int j = 0; j < NAMES.length; j++) {
+            values[j] = dictionaries[j].values.toArray(new String[0]);
+        }
+        snapshot = new Snapshot(combos, comboCounts, values);
+    }
+
+    private static int id(int combo, int field) {
+        return combo >>> (BITS * field) & MASK;
+    }
+
+    private static int indexOf(String[] values, String value) {
+        for (int i = 1; i < values.length; i++) {
+            if (values[i].equals(value)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    //和索引库的terms聚合一样：按数量倒序，数量相同按取值排序
+    private static List<String> top(String[] values, long[] tally) {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 1; i < tally.length; i++) {
+            if (tally[i] > 0) {
+                ids.add(i);
+            }
+        }
+        ids.sort((a, b) -> tally[a] != tally[b] ? Long.compare(tally[b], tally[a]) : values[a].compareTo(values[b]));
+        List<String> result = new ArrayList<>(Math.min(ids.size(), FACET_SIZE));
+        for (int i = 0; i < ids.size() && i < FACET_SIZE; i++) {
+            result.add(values[ids.get(i)]);
+        }
+        return result;
+    }
+
+    private static boolean hasText(String value) {
+        return value != null && !"".equals(value.trim());
+    }
+
+    /**
+     * 字段取值与编号的对应关系
+     */
+    private static final class Dictionary {
+        private final ObjectIntHashMap<String> ids = new ObjectIntHashMap<>();
+        //下标是编号，0号位置不使用
+        private final List<String> values = new ArrayList<>(Arrays.asList(""));
+
+        int idOf(String value) {
+            if (value == null || value.isEmpty()) {
+                return 0;
+            }
+            int id = ids.getOrDefault(value, 0);
+            if (id == 0) {
+                if (values.size() > MASK) {
+                    throw new IllegalStateException("取值超过" + MASK + "个");
+                }
+                id = values.size();
+                ids.put(value, id);
+                values.add(value);
+            }
+            return id;
+        }
+
+        void clear() {
+            ids.clear();
+            values.subList(1, values.size()).clear();
+        }
+    }
+
+    /**
+     * 计数的快照，生成后不再修改
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(new int[0], new int[0], new String[][]{{""}, {""}, {""}});
+
+        final int[] combos;
+        final int[] counts;
+        final String[][] values;
+
+        Snapshot(int[] combos, int[] counts, String[][] values) {
+            this.combos = combos;
+            this.counts = counts;
+            this.values = values;
+        }
+
+        //某个字段每个取值的酒店数量
+        Map<String, Long> totals(int field) {
+            Map<String, Long> totals = new HashMap<>();
+            for (int i = 0; i < combos.length; i++) {
+                int id = id(combos[i], field);
+                if (id > 0) {
+                    totals.merge(values[field][id], (long) counts[i], Long::sum);
+                }
+            }
+            return totals;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package cn.itcast.hotel.service.impl;
+
+import cn.itcast.hotel.config.ElasticsearchProperties;
+import cn.itcast.hotel.config.IndexProperties;
+import cn.itcast.hotel.pojo.RebuildStatus;
+import cn.itcast.hotel.pojo.ReindexResult;
+import cn.itcast.hotel.service.IHotelIndexService;
+import cn.itcast.hotel.service.IHotelReindexService;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.config.RequestConfig;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.forcemerge.ForceMergeRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.client.indices.GetIndexResponse;
+import org.elasticsearch.cluster.metadata.AliasMetadata;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static cn.itcast.hotel.constants.HotelConstants.HOTEL_ALIAS;
+import static cn.itcast.hotel.constants.HotelConstants.HOTEL_INDEX_PREFIX;
+import static cn.itcast.hotel.constants.HotelConstants.MAPPING_TEMPLATE;
+
+/**
+ * 索引生命周期管理：查询统一走hotel别名，重建时创建hotel_v{n}新索引，导入完成后原子切换别名。
+ * 重建期间MQ的写入同时写新旧两个索引，导入数据不会覆盖MQ写入的数据，期间删除的文档在导入后重新删除。
+ * 重建在后台线程执行，接口立即返回任务状态，通过getRebuildStatus查询进度。
+ */
+@Slf4j
+@Service
+public class HotelIndexService implements IHotelIndexService {
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private IHotelReindexService reindexService;
+
+    @Autowired
+    private IndexProperties indexProperties;
+
+    @Autowired
+    private ElasticsearchProperties elasticsearchProperties;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    //正在重建的新索引，为null表示没有重建
+    private volatile String rebuildIndex;
+    //重建期间删除的酒店id
+    private final Set<Long> deletedDuringRebuild = ConcurrentHashMap.newKeySet();
+    //最近一次重建的状态，每次变化时替换为新对象
+    private volatile RebuildStatus status;
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "hotel-index-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public synchronized RebuildStatus rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return status;
+        }
+        RebuildStatus running = new RebuildStatus(UUID.randomUUID().toString(), RebuildStatus.RUNNING,
+                System.currentTimeMillis());
+        status = running;
+        try {
+            executor.execute(() -> run(running));
+        } catch (RejectedExecutionException e) {
+            finish(running, null, e);
+            rebuilding.set(false);
+            throw e;
+        }
+        return running;
+    }
+
+    @Override
+    public RebuildStatus getRebuildStatus() {
+        return status;
+    }
+
+    private void run(RebuildStatus running) {
+        try {
+            finish(running, doRebuild(running), null);
+        } catch (Exception e) {
+            finish(running, null, e);
+        } finally {
+            rebuilding.set(false);
+        }
+    }
+
+    private void finish(RebuildStatus running, ReindexResult result, Exception error) {
+        RebuildStatus finished = new RebuildStatus(running.getTaskId(),
+                error == null ? RebuildStatus.SUCCEEDED : RebuildStatus.FAILED, running.getStartTime());
+        finished.setIndex(status.getIndex());
+        finished.setFinishTime(System.currentTimeMillis());
+        finished.setResult(result);
+        finished.setError(error == null ? null : error.toString());
+        status = finished;
+    }
+
+    private ReindexResult doRebuild(RebuildStatus running) {
+        String newIndex = null;
+        String created = null;
+        try {
+            //查询现有的索引和别名
+            GetIndexResponse current = client.indices().get(
+                    new GetIndexRequest(HOTEL_ALIAS + "*"), RequestOptions.DEFAULT);
+            newIndex = HOTEL_INDEX_PREFIX + (latestVersion(current.getIndices()) + 1);
+            RebuildStatus withIndex = new RebuildStatus(running.getTaskId(), RebuildStatus.RUNNING, running.getStartTime());
+            withIndex.setIndex(newIndex);
+            status = withIndex;
+
+            //创建新索引，导入期间关闭刷新和副本
+            CreateIndexRequest createRequest = new CreateIndexRequest(newIndex);
+            createRequest.source(MAPPING_TEMPLATE, XContentType.JSON);
+            createRequest.settings(Settings.builder().put(createRequest.settings())
+                    .put("index.refresh_interval", "-1")
+                    .put("index.number_of_replicas", 0));
+            client.indices().create(createRequest, RequestOptions.DEFAULT);
+            created = newIndex;
+            log.info("创建索引{}，开始导入数据", newIndex);
+
+            //开始双写后再读取数据库，之后的修改一定会写入新索引
+            deletedDuringRebuild.clear();
+            rebuildIndex = newIndex;
+            ReindexResult result = reindexService.reindex(newIndex, true);
+            replayDeletes(newIndex);
+
+            //先在没有副本时合并段，副本恢复时直接复制合并后的段，再恢复刷新和副本
+            RequestOptions longRunning = longRunningOptions();
+            client.indices().forcemerge(new ForceMergeRequest(newIndex)
+                    .maxNumSegments(indexProperties.getMaxNumSegments()), longRunning);
+            client.indices().putSettings(new UpdateSettingsRequest(newIndex).settings(Settings.builder()
+                    .put("index.refresh_interval", indexProperties.getRefreshInterval())
+                    .put("index.number_of_replicas", indexProperties.getNumberOfReplicas())), RequestOptions.DEFAULT);
+            client.indices().refresh(new RefreshRequest(newIndex), longRunning);
+
+            //原子切换别名
+            client.indices().updateAliases(swapAlias(current, newIndex), RequestOptions.DEFAULT);
+            log.info("别名{}已切换到{}", HOTEL_ALIAS, newIndex);
+            return result;
+        } catch (Exception e) {
+            log.error("重建索引{}失败", newIndex, e);
+            deleteQuietly(created);
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+        } finally {
+            rebuildIndex = null;
+            deletedDuringRebuild.clear();
+        }
+    }
+
+    //请求级的RequestConfig会替换客户端的默认配置，连接相关的超时保持不变，只放大读取超时
+    private RequestOptions longRunningOptions() {
+        RequestOptions.Builder options = RequestOptions.DEFAULT.toBuilder();
+        options.setRequestConfig(RequestConfig.custom()
+                .setConnectTimeout(elasticsearchProperties.getConnectTimeoutMs())
+                .setConnectionRequestTimeout(elasticsearchProperties.getConnectionRequestTimeoutMs())
+                .setSocketTimeout(indexProperties.getForceMergeTimeoutMs())
+                .build());
+        return options.build();
+    }
+
+    @Override
+    public List<String> writeIndices() {
+        String target = rebuildIndex;
+        return target == null ? Collections.singletonList(HOTEL_ALIAS) : Arrays.asList(HOTEL_ALIAS, target);
+    }
+
+    @Override
+    public void onDeleted(Long id) {
+        if (rebuildIndex != null) {
+            deletedDuringRebuild.add(id);
+        }
+    }
+
+    @Override
+    public void onUpserted(Long id) {
+        if (rebuildIndex != null) {
+            deletedDuringRebuild.remove(id);
+        }
+    }
+
+    //导入可能把重建期间已删除的酒店重新写入，导入完成后再删除一次
+    private void replayDeletes(String index) throws IOException {
+        if (deletedDuringRebuild.isEmpty()) {
+            return;
+        }
+        BulkRequest request = new BulkRequest();
+        for (Long id : deletedDuringRebuild) {
+            request.add(new DeleteRequest(index, id.toString()));
+        }
+        client.bulk(request, RequestOptions.DEFAULT);
+        log.info("重新删除重建期间删除的{}个文档", request.numberOfActions());
+    }
+
+    private IndicesAliasesRequest swapAlias(GetIndexResponse current, String newIndex) {
+        IndicesAliasesRequest request = new IndicesAliasesRequest();
+        request.addAliasAction(IndicesAliasesRequest.AliasActions.add().index(newIndex).alias(HOTEL_ALIAS));
+        for (String index : current.getIndices()) {
+            if (HOTEL_ALIAS.equals(index)) {
+                //旧版本直接使用hotel作为索引名，必须删除后别名才能使用这个名字
+                request.addAliasAction(IndicesAliasesRequest.AliasActions.removeIndex().index(index));
+            } else if (hasAlias(current.getAliases(), index)) {
+                request.addAliasAction(IndicesAliasesRequest.AliasActions.remove().index(index).alias(HOTEL_ALIAS));
+            }
+        }
+        return request;
+    }
+
+    private boolean hasAlias(Map<String, List<AliasMetadata>> aliases, String index) {
+        List<AliasMetadata> list = aliases.get(index);
+        if (list == null) {
+            return false;
+        }
+        for (AliasMetadata alias : list) {
+            if (HOTEL_ALIAS.equals(alias.alias())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int latestVersion(String[] indices) {
+        int latest = 0;
+        for (String index : indices) {
+            if (!index.startsWith(HOTEL_INDEX_PREFIX)) {
+                continue;
+            }
+            try {
+                latest = Math.max(latest, Integer.parseInt(index.substring(HOTEL_INDEX_PREFIX.length())));
+            } catch (NumberFormatException ignored) {
+                //不是版本化的索引
+            }
+        }
+        return latest;
+    }
+
+    private void deleteQuietly(String index) {
+        if (index == null) {
+            return;
+        }
+        try {
+            client.indices().delete(new DeleteIndexRequest(index), RequestOptions.DEFAULT);
+        } catch (Exception e) {
+            log.warn("删除索引{}失败", index, e);
+        }
+    }
+}
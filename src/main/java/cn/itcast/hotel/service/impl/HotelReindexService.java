@@ -0,0 +1,167 @@
+package cn.itcast.hotel.service.impl;
+
+import cn.itcast.hotel.config.ReindexProperties;
+import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.pojo.ReindexResult;
+import cn.itcast.hotel.service.IHotelReindexService;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static cn.itcast.hotel.service.impl.EsCallMetrics.REINDEX;
+
+/**
+ * 从数据库全量导入索引库。
+ * 按id分段读取，读取线程只负责查询，转换和bulk在工作线程中并发执行，
+ * 同时执行的bulk数量由信号量控制，工作线程都忙时读取线程等待，内存占用与表大小无关。
+ */
+@Slf4j
+@Service
+public class HotelReindexService implements IHotelReindexService {
+
+    @Autowired
+    private RestHighLevelClient client;
+
+    @Autowired
+    private EsCallMetrics esMetrics;
+
+    @Autowired
+    private HotelMapper hotelMapper;
+
+    @Autowired
+    private ReindexProperties reindexProperties;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Override
+    public ReindexResult reindex(String index) {
+        return reindex(index, false);
+    }
+
+    /**
+     * @param index 目标索引
+     * @param createOnly 是否只新增文档，为true时已经存在的文档(例如重建期间MQ双写的数据)不会被覆盖
+     */
+    @Override
+    public ReindexResult reindex(String index, boolean createOnly) {
+        if (!running.compareAndSet(false, true)) {
+            throw new IllegalStateException("重建索引正在执行中");
+        }
+        try {
+            return doReindex(index, createOnly);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private ReindexResult doReindex(String index, boolean createOnly) throws InterruptedException {
+        int batchSize = reindexProperties.getBatchSize();
+        int concurrency = reindexProperties.getConcurrency();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService workers = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> new Thread(r, "hotel-reindex-" + threadNumber.incrementAndGet()));
+        Semaphore inFlight = new Semaphore(concurrency);
+        AtomicLong indexed = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicReference<Exception> error = new AtomicReference<>();
+
+        long start = System.currentTimeMillis();
+        long lastReport = start;
+        long total = 0;
+        long lastId = 0;
+        try {
+            while (error.get() == null) {
+                //按id分段读取，避免offset翻页越来越慢
+                List<Hotel> hotels = hotelMapper.selectList(new QueryWrapper<Hotel>()
+                        .gt("id", lastId).orderByAsc("id").last("limit " + batchSize));
+                if (hotels.isEmpty()) {
+                    break;
+                }
+                lastId = hotels.get(hotels.size() - 1).getId();
+                total += hotels.size();
+                //所有工作线程都在执行bulk时，等待空闲
+                inFlight.acquire();
+                workers.execute(() -> {
+                    try {
+                        BulkResponse response = esMetrics.bulk(client, REINDEX,
+                                toBulkRequest(index, hotels, createOnly));
+                        for (BulkItemResponse item : response.getItems()) {
+                            if (createOnly && item.status() == RestStatus.CONFLICT) {
+                                //文档已经由MQ写入了更新的数据，跳过
+                                continue;
+                            }
+                            if (item.isFailed()) {
+                                failed.incrementAndGet();
+                                log.warn("酒店{}导入失败：{}", item.getId(), item.getFailureMessage());
+                            } else {
+                                indexed.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        error.compareAndSet(null, e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+                long now = System.currentTimeMillis();
+                if (now - lastReport >= reindexProperties.getProgressIntervalMs()) {
+                    log.info("导入{}中，已读取{}条，已写入{}条，{}条/秒", index, total, indexed.get(),
+                            indexed.get() * 1000 / Math.max(1, now - start));
+                    lastReport = now;
+                }
+                if (hotels.size() < batchSize) {
+                    break;
+                }
+            }
+            //等待所有bulk完成
+            inFlight.acquire(concurrency);
+            inFlight.release(concurrency);
+        } finally {
+            workers.shutdown();
+        }
+        if (error.get() != null) {
+            throw new RuntimeException("导入" + index + "失败", error.get());
+        }
+        ReindexResult result = new ReindexResult(index, total, failed.get(), System.currentTimeMillis() - start);
+        log.info("导入{}完成，共{}条，失败{}条，耗时{}ms，{}条/秒", index, result.getTotal(), result.getFailed(),
+                result.getTookMillis(), result.getDocsPerSecond());
+        return result;
+    }
+
+    private BulkRequest toBulkRequest(String index, List<Hotel> hotels, boolean createOnly) {
+        BulkRequest request = new BulkRequest();
+        for (Hotel hotel : hotels) {
+            //转换为文档类型
+            HotelDoc hotelDoc = HotelDocConverter.convert(hotel);
+            request.add(new IndexRequest(index)
+                    .id(hotelDoc.getId().toString())
+                    .create(createOnly)
+                    .source(HotelDocSerializer.toSource(hotelDoc), XContentType.JSON));
+        }
+        return request;
+    }
+}
@@ -0,0 +1,236 @@
+package cn.itcast.hotel.service.impl;
+
+import cn.itcast.hotel.config.SearchCacheProperties;
+import cn.itcast.hotel.pojo.FacetPageResult;
+import cn.itcast.hotel.pojo.HotelChangedEvent;
+import cn.itcast.hotel.pojo.PageResult;
+import cn.itcast.hotel.pojo.RequestParams;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 列表、过滤项查询结果的本地缓存，key是规范化后的请求参数。
+ * 酒店数据变更时清空，命中率等指标通过micrometer暴露(cache.gets、cache.evictions等)。
+ * 列表、过滤项、带分面的列表另外保留一份过期时间更长的结果，查询被限流时作为降级结果返回。
+ */
+@Component
+public class HotelSearchCache {
+    //参数之间的分隔符，不会出现在用户输入中
+    private static final char SEPARATOR = '\u0001';
+
+    @Autowired
+    private SearchCacheProperties cacheProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, PageResult> pageCache;
+    private Cache<String, Map<String, List<String>>> filterCache;
+    private Cache<String, FacetPageResult> facetCache;
+    private Cache<String, GeoCandidates> geoCache;
+    private Cache<String, Long> totalCache;
+    private Cache<String, PageResult> stalePageCache;
+    private Cache<String, Map<String, List<String>>> staleFilterCache;
+    private Cache<String, FacetPageResult> staleFacetCache;
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        pageCache = build("hotel.list");
+        filterCache = build("hotel.filters");
+        facetCache = build("hotel.search-with-facets");
+        geoCache = build("hotel.geo-cells");
+        totalCache = build("hotel.totals");
+        stalePageCache = build("hotel.list.stale", cacheProperties.getStaleTtlSeconds());
+        staleFilterCache = build("hotel.filters.stale", cacheProperties.getStaleTtlSeconds());
+        staleFacetCache = build("hotel.search-with-facets.stale", cacheProperties.getStaleTtlSeconds());
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hotel-search-cache");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    public CompletableFuture<PageResult> getPageAsync(RequestParams params,
+                                                      Supplier<CompletableFuture<PageResult>> loader) {
+        if (!isCacheable(params)) {
+            return loader.get();
+        }
+        return getAsync(pageCache, stalePageCache, pageKey(params), loader);
+    }
+
+    public CompletableFuture<Map<String, List<String>>> getFiltersAsync(RequestParams params,
+                                                                        Supplier<CompletableFuture<Map<String, List<String>>>> loader) {
+        if (!cacheProperties.isEnabled()) {
+            return loader.get();
+        }
+        return getAsync(filterCache, staleFilterCache, filterKey(params), loader);
+    }
+
+    public CompletableFuture<FacetPageResult> getFacetPageAsync(RequestParams params,
+                                                                Supplier<CompletableFuture<FacetPageResult>> loader) {
+        if (!isCacheable(params)) {
+            return loader.get();
+        }
+        return getAsync(facetCache, staleFacetCache, pageKey(params), loader);
+    }
+
+    /**
+     * 按距离排序的查询：网格的候选集，key是过滤条件+网格+返回的字段
+     */
+    CompletableFuture<GeoCandidates> getGeoCandidatesAsync(RequestParams params, String cell,
+                                                           Supplier<CompletableFuture<GeoCandidates>> loader) {
+        if (!cacheProperties.isEnabled()) {
+            return loader.get();
+        }
+        return getAsync(geoCache, null, geoKey(params, cell), loader);
+    }
+
+    /**
+     * 符合查询条件的酒店总数，只和过滤条件有关
+     */
+    CompletableFuture<Long> getTotalAsync(RequestParams params, Supplier<CompletableFuture<Long>> loader) {
+        if (!cacheProperties.isEnabled()) {
+            return loader.get();
+        }
+        return getAsync(totalCache, null, filterKey(params), loader);
+    }
+
+    /**
+     * 查询被限流时返回的过期结果，没有时返回null
+     */
+    public PageResult getStalePage(RequestParams params) {
+        return isCacheable(params) ? stalePageCache.getIfPresent(pageKey(params)) : null;
+    }
+
+    public Map<String, List<String>> getStaleFilters(RequestParams params) {
+        return cacheProperties.isEnabled() ? staleFilterCache.getIfPresent(filterKey(params)) : null;
+    }
+
+    public FacetPageResult getStaleFacetPage(RequestParams params) {
+        return isCacheable(params) ? staleFacetCache.getIfPresent(pageKey(params)) : null;
+    }
+
+    /**
+     * 酒店数据变更后清空缓存。
+     * 写入的数据要等索引库刷新后才能查到，刷新前可能又缓存了旧数据，所以延迟后再清空一次
+     */
+    @EventListener
+    public void onHotelChanged(HotelChangedEvent event) {
+        invalidateAll();
+        scheduler.schedule(this::invalidateAll, cacheProperties.getRefreshDelayMs(), TimeUnit.MILLISECONDS);
+    }
+
+    //过期结果只在限流时使用，数据变更时不清空
+    public void invalidateAll() {
+        pageCache.invalidateAll();
+        filterCache.invalidateAll();
+        facetCache.invalidateAll();
+        geoCache.invalidateAll();
+        totalCache.invalidateAll();
+    }
+
+    //命中时直接返回，未命中时查询完成后放入缓存，同时进行的相同查询由SearchCoalescer合并
+    private <V> CompletableFuture<V> getAsync(Cache<String, V> cache, Cache<String, V> stale, String key,
+                                              Supplier<CompletableFuture<V>> loader) {
+        V cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return loader.get().thenApply(value -> {
+            cache.put(key, value);
+            return stale == null ? value : keepStale(stale, key, value);
+        });
+    }
+
+    private static <V> V keepStale(Cache<String, V> stale, String key, V value) {
+        if (value != null) {
+            stale.put(key, value);
+        }
+        return value;
+    }
+
+    //带位置的查询几乎不会重复，不缓存
+    private boolean isCacheable(RequestParams params) {
+        return cacheProperties.isEnabled() && isBlank(params.getLocation());
+    }
+
+    private <V> Cache<String, V> build(String name) {
+        return build(name, cacheProperties.getTtlSeconds());
+    }
+
+    private <V> Cache<String, V> build(String name, long ttlSeconds) {
+        Cache<String, V> cache = Caffeine.newBuilder()
+                .maximumSize(cacheProperties.getMaxSize())
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+        return cache;
+    }
+
+    /**
+     * 列表查询的key：过滤条件+分页+排序+返回的字段
+     */
+    static String pageKey(RequestParams params) {
+        return filterKey(params) + SEPARATOR + params.getPage() + SEPARATOR + params.getSize()
+                + SEPARATOR + exact(params.getSortBy()) + SEPARATOR + exact(params.getView());
+    }
+
+    /**
+     * 合并同时进行的相同查询的key：列表的key加上位置
+     */
+    static String requestKey(RequestParams params) {
+        return pageKey(params) + SEPARATOR + normalize(params.getLocation());
+    }
+
+    static String geoKey(RequestParams params, String cell) {
+        return filterKey(params) + SEPARATOR + cell + SEPARATOR + exact(params.getView());
+    }
+
+    /**
+     * 过滤项查询的key：只和查询条件有关，与分页、排序、位置无关
+     */
+    static String filterKey(RequestParams params) {
+        //价格只有最小值和最大值都有时才生效
+        boolean hasPrice = params.getMinPrice() != null && params.getMaxPrice() != null;
+        return normalize(params.getKey()) + SEPARATOR + exact(params.getCity())
+                + SEPARATOR + exact(params.getBrand()) + SEPARATOR + exact(params.getStarName())
+                + SEPARATOR + (hasPrice ? params.getMinPrice() + "-" + params.getMaxPrice() : "");
+    }
+
+    //关键字做分词查询、位置解析时忽略空白，前后的空格不影响结果
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim();
+    }
+
+    //城市、品牌、星级是term查询，排序和返回字段按原值比较，带空格的值是不同的查询，不能去掉空格。
+    //只有空白时和没有传一样，不加过滤条件
+    private static String exact(String value) {
+        return isBlank(value) ? "" : value;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().isEmpty();
+    }
+}
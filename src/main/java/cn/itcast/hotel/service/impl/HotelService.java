@@ -1,32 +1,54 @@
 package cn.itcast.hotel.service.impl;
 
+import cn.itcast.hotel.config.BulkProperties;
+import cn.itcast.hotel.config.SearchProperties;
 import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.pojo.FacetPageResult;
 import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelChangedEvent;
 import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.pojo.HotelListDoc;
 import cn.itcast.hotel.pojo.PageResult;
 import cn.itcast.hotel.pojo.RequestParams;
+import cn.itcast.hotel.service.CursorExpiredException;
+import cn.itcast.hotel.service.IHotelAsyncService;
+import cn.itcast.hotel.service.IHotelIndexService;
 import cn.itcast.hotel.service.IHotelService;
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.geo.GeoPoint;
+import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.unit.DistanceUnit;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
 import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.aggregations.Aggregation;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
 import org.elasticsearch.search.aggregations.Aggregations;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.builder.PointInTimeBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.fetch.subphase.highlight.HighlightField;
 import org.elasticsearch.search.sort.SortBuilder;
 import org.elasticsearch.search.sort.SortBuilders;
@@ -35,134 +57,429 @@ import org.elasticsearch.search.suggest.Suggest;
 import org.elasticsearch.search.suggest.SuggestBuilder;
 import org.elasticsearch.search.suggest.SuggestBuilders;
 import org.elasticsearch.search.suggest.completion.CompletionSuggestion;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
+import static cn.itcast.hotel.constants.HotelConstants.HOTEL_ALIAS;
+import static cn.itcast.hotel.constants.HotelConstants.SORT_BY_PRICE;
+import static cn.itcast.hotel.constants.HotelConstants.SORT_BY_SCORE;
+import static cn.itcast.hotel.constants.HotelConstants.VIEW_FULL;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.COUNT;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.CURSOR;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.FACETS;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.FILTERS;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.LIST;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.NEARBY;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.PIT;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.STREAM;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.SUGGESTION;
+
+@Slf4j
 @Service
-public class HotelService extends ServiceImpl<HotelMapper, Hotel> implements IHotelService {
+public class HotelService extends ServiceImpl<HotelMapper, Hotel> implements IHotelService, IHotelAsyncService {
+    //列表页展示的字段，isAD按fastjson写入时为aD
+    private static final String[] LIST_FIELDS = {"id", "name", "address", "price", "score", "starName", "business",
+            "location", "pic", "isAD", "aD"};
 
     @Autowired
     private RestHighLevelClient client;
 
+    @Autowired
+    private BulkProperties bulkProperties;
+
+    @Autowired
+    private IHotelIndexService indexService;
+
+    @Autowired
+    private HotelSearchCache searchCache;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private HotelSuggestionIndex suggestionIndex;
+
+    @Autowired
+    private HotelFacetIndex facetIndex;
+
+    @Autowired
+    private SearchProperties searchProperties;
+
+    @Autowired
+    private EsCallMetrics esMetrics;
+
+    @Autowired
+    private SearchLimiter searchLimiter;
+
+    @Autowired
+    private SearchCoalescer coalescer;
+
+    /**
+     * 同步查询与异步查询是同一个实现，在当前线程等待结果
+     */
     @Override
     public PageResult search(RequestParams params) {
+        return join(searchAsync(params));
+    }
+
+    @Override
+    public Map<String, List<String>> filters(RequestParams params) {
+        return join(filtersAsync(params));
+    }
+
+    @Override
+    public FacetPageResult searchWithFacets(RequestParams params) {
+        return join(searchWithFacetsAsync(params));
+    }
+
+    @Override
+    public List<String> getSuggestions(String prefix) {
+        return join(getSuggestionsAsync(prefix));
+    }
+
+    //异步查询的异常原样抛出，受检异常(例如IOException)包装为RuntimeException
+    private static <T> T join(CompletableFuture<T> future) {
         try {
-            //准备request
-            SearchRequest request = new SearchRequest("hotel");
-            //准备DSL
-            //query
-            buildBaiscQuery(params, request);
-
-            //地理位置排序
-            String location = params.getLocation();
-            if(location!=null&&!"".equals(location.trim())){
-                request.source().sort(SortBuilders.geoDistanceSort("location",
-                        new GeoPoint(location)).order(SortOrder.ASC).unit(DistanceUnit.KILOMETERS));
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
-            //分页
-            int page=params.getPage();
-            int size=params.getSize();
-            request.source().from((page-1)*size).size(size);
-            SearchResponse search = client.search(request, RequestOptions.DEFAULT);
-            return handleResponse(request);
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
 
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    @Override
+    public CompletableFuture<PageResult> searchAsync(RequestParams params) {
+        if (params.getCursor() != null) {
+            //先解析游标，无效的游标不占用并发
+            SearchCursor cursor = params.getCursor().isEmpty() ? null : SearchCursor.decode(params.getCursor(),
+                    cursorSortCount(params));
+            return searchLimiter.executeAsync(CURSOR, () -> cursorSearchAsync(params, cursor), null);
+        }
+        if (isGeoCellSearch(params)) {
+            String cell = geoCell(params);
+            RequestParams candidateParams = geoCandidateParams(params, cell);
+            return searchCache.getGeoCandidatesAsync(params, cell,
+                    () -> coalescer.executeAsync(LIST, HotelSearchCache.geoKey(params, cell),
+                            () -> searchLimiter.executeAsync(LIST, () -> doSearchAsync(candidateParams)
+                                    .thenApply(page -> new GeoCandidates(cell, candidateParams.getSize(), page)), null)))
+                    .thenCompose(candidates -> {
+                        PageResult page = candidates.page(new GeoPoint(params.getLocation()),
+                                (params.getPage() - 1) * params.getSize(), params.getSize());
+                        return page != null ? CompletableFuture.completedFuture(page) : listAsync(params);
+                    });
+        }
+        return searchCache.getPageAsync(params, () -> listAsync(params));
+    }
+
+    //相同的查询合并，超过并发上限时返回过期的缓存
+    private CompletableFuture<PageResult> listAsync(RequestParams params) {
+        return coalescer.executeAsync(LIST, HotelSearchCache.requestKey(params), () -> searchLimiter.executeAsync(LIST,
+                () -> doSearchAsync(params), () -> searchCache.getStalePage(params)));
+    }
+
+    private CompletableFuture<PageResult> doSearchAsync(RequestParams params) {
+        if (isNearbySearch(params)) {
+            return searchCache.getTotalAsync(params,
+                    () -> sendAsync(COUNT, buildCountRequest(params), response -> response.getHits().getTotalHits().value))
+                    .thenCompose(total -> nearbySearchAsync(params, total, searchProperties.getNearby().getInitialRadiusKm()));
         }
+        return sendAsync(LIST, buildSearchRequest(params), response -> handleResponse(params, response));
+    }
+
+    private CompletableFuture<PageResult> nearbySearchAsync(RequestParams params, long total, double radiusKm) {
+        SearchProperties.Nearby nearby = searchProperties.getNearby();
+        if (radiusKm > nearby.getMaxRadiusKm()) {
+            return sendAsync(LIST, buildSearchRequest(params), response -> handleResponse(params, response));
+        }
+        return sendAsync(NEARBY, buildNearbyRequest(params, radiusKm), response -> handleNearbyResponse(params, response, total))
+                .thenCompose(page -> page != null ? CompletableFuture.completedFuture(page)
+                        : nearbySearchAsync(params, total, radiusKm * Math.max(nearby.getGrowthFactor(), 2)));
     }
 
     @Override
-    public Map<String, List<String>> filters(RequestParams params) {
-        try {
-            SearchRequest request = new SearchRequest("hotel");
-            request.source().size(0);
-            //query 限定查询范围
-            buildBaiscQuery(params, request);
-
-            //聚合
-            bulidAggregation(request);
-            SearchResponse response = client.search(request, RequestOptions.DEFAULT);
-
-            Map<String, List<String>> result = new HashMap<>();
-            //解析结果
-            //获取聚合觉果
-            Aggregations aggregations = response.getAggregations();
-            //根据名称获取结果
-            List<String> brandList = getAggByName(aggregations,"brandAgg");
-            result.put("品牌",brandList);
-            List<String> cityList = getAggByName(aggregations,"cityAgg");
-            result.put("城市",cityList);
-            List<String> starList = getAggByName(aggregations,"starAgg");
-            result.put("星级",starList);
-            return result;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    public CompletableFuture<Map<String, List<String>>> filtersAsync(RequestParams params) {
+        Map<String, List<String>> local = facetIndex.filters(params);
+        if (local != null) {
+            return CompletableFuture.completedFuture(local);
         }
+        return searchCache.getFiltersAsync(params, () -> coalescer.executeAsync(FILTERS, HotelSearchCache.filterKey(params),
+                () -> searchLimiter.executeAsync(FILTERS,
+                        () -> sendAsync(FILTERS, buildFiltersRequest(params), response -> handleAggregations(response.getAggregations())),
+                        () -> degradedFilters(params))));
     }
 
+    /**
+     * 页面加载的查询，与列表共用并发。列表繁忙时不做聚合，按列表查询，过滤项为空
+     */
     @Override
-    public List<String> getSuggestions(String prefix) {
-        try {
+    public CompletableFuture<FacetPageResult> searchWithFacetsAsync(RequestParams params) {
+        if (searchLimiter.isListBusy()) {
+            return searchAsync(params).thenApply(HotelService::withoutFacets);
+        }
+        return searchCache.getFacetPageAsync(params, () -> coalescer.executeAsync(FACETS, HotelSearchCache.requestKey(params),
+                () -> searchLimiter.executeAsync(FACETS,
+                        () -> sendAsync(FACETS, buildFacetsRequest(params), response -> handleFacetResponse(params, response)),
+                        () -> degradedFacetPage(params))));
+    }
 
-            //准备request
-            SearchRequest request = new SearchRequest("hotel");
-            //准备DSL
-            request.source().suggest(new SuggestBuilder().addSuggestion(
-                    "suggestions", SuggestBuilders.completionSuggestion("suggestion")
-                            .prefix(prefix).skipDuplicates(true).size(10)));
-            //发起请求
-            SearchResponse response = client.search(request, RequestOptions.DEFAULT);
-            //解析结果
-            Suggest suggest = response.getSuggest();
-            //根据补全名称获取补全结果
-            CompletionSuggestion suggestion = suggest.getSuggestion("suggestions");
-            List<CompletionSuggestion.Entry.Option> options = suggestion.getOptions();
-            List<String> result = new ArrayList<>(options.size());
-            for (CompletionSuggestion.Entry.Option option : options) {
-                String test = option.getText().toString();
-                result.add(test);
-            }
-            return result;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    @Override
+    public CompletableFuture<List<String>> getSuggestionsAsync(String prefix) {
+        List<String> local = localSuggestions(prefix);
+        if (!local.isEmpty()) {
+            return CompletableFuture.completedFuture(local);
+        }
+        //本地前缀树已经没有结果，被拒绝时不返回补全
+        return coalescer.executeAsync(SUGGESTION, prefix, () -> searchLimiter.executeAsync(SUGGESTION,
+                () -> sendAsync(SUGGESTION, buildSuggestionRequest(prefix), this::handleSuggestions), Collections::emptyList));
+    }
+
+    //范围内的酒店数量够请求的分页，或者已经包含了全部酒店
+    private boolean isPageFilled(RequestParams params, SearchResponse response, long total) {
+        long within = response.getHits().getTotalHits().value;
+        return within >= (long) params.getPage() * params.getSize() || within >= total;
+    }
+
+    /**
+     * 范围内的酒店不够请求的分页时返回null，需要扩大范围
+     */
+    private PageResult handleNearbyResponse(RequestParams params, SearchResponse response, long total) {
+        if (!isPageFilled(params, response, total)) {
+            return null;
         }
+        PageResult result = handleResponse(params, response);
+        result.setTotal(total);
+        return result;
     }
 
     @Override
-    public void insertById(Long id) {
+    public void writeSearch(RequestParams params, OutputStream out) {
+        searchLimiter.execute(STREAM, () -> doWriteSearch(params, out));
+    }
+
+    private void doWriteSearch(RequestParams params, OutputStream out) {
         try {
-            //根据id查询酒店数据
-            Hotel hotel = getById(id);
-            //准备request
-            HotelDoc hotelDoc = new HotelDoc(hotel);
-            IndexRequest request = new IndexRequest("hotel").id(hotelDoc.getId().toString());
-            //准备DSL
-            request.source(JSON.toJSONString(hotelDoc), XContentType.JSON);
-            //发送请求
-            client.index(request,RequestOptions.DEFAULT);
+            SearchRequest searchRequest = buildSearchRequest(params);
+            //直接使用低级客户端，拿到响应的原始字节
+            Request request = new Request("POST", "/" + HOTEL_ALIAS + "/_search");
+            request.setJsonEntity(Strings.toString(searchRequest.source()));
+            Response response = esMetrics.perform(client.getLowLevelClient(), STREAM, request);
+            SearchResponseStreamer.write(EntityUtils.toByteArray(response.getEntity()), distanceSortIndex(params), out);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * 过滤项被限流时依次返回过期的缓存、不带条件的本地计数，都没有时不返回过滤项
+     */
+    private Map<String, List<String>> degradedFilters(RequestParams params) {
+        Map<String, List<String>> stale = searchCache.getStaleFilters(params);
+        if (stale != null) {
+            return stale;
+        }
+        Map<String, List<String>> all = facetIndex.filters(new RequestParams());
+        return all != null ? all : Collections.emptyMap();
+    }
+
+    /**
+     * 带分面的列表被限流时依次返回过期的结果、过期的列表(过滤项为空)，都没有时返回503
+     */
+    private FacetPageResult degradedFacetPage(RequestParams params) {
+        FacetPageResult stale = searchCache.getStaleFacetPage(params);
+        if (stale != null) {
+            return stale;
+        }
+        PageResult page = searchCache.getStalePage(params);
+        return page == null ? null : withoutFacets(page);
+    }
+
+    private static FacetPageResult withoutFacets(PageResult page) {
+        return new FacetPageResult(page.getTotal(), page.getHotels(), Collections.emptyMap());
+    }
+
+    //优先使用本地前缀树，没有结果时(例如拼音)再查询索引库
+    private List<String> localSuggestions(String prefix) {
+        return suggestionIndex.isReady() ? suggestionIndex.suggest(prefix) : Collections.emptyList();
+    }
+
+    /**
+     * 异步发送查询，不占用调用线程。handler在ES客户端的IO线程中执行，后续处理不能阻塞
+     */
+    private <T> CompletableFuture<T> sendAsync(String endpoint, SearchRequest request, Function<SearchResponse, T> handler) {
+        return esMetrics.searchAsync(client, endpoint, request, handler);
+    }
+
+    @Override
+    public void insertById(Long id) {
+        BulkResponse response = bulk(Collections.singletonList(id), Collections.emptyList());
+        if (response.hasFailures()) {
+            throw new RuntimeException(response.buildFailureMessage());
+        }
+    }
+
     @Override
     public void deleteById(Long id) {
+        BulkResponse response = bulk(Collections.emptyList(), Collections.singletonList(id));
+        if (response.hasFailures()) {
+            throw new RuntimeException(response.buildFailureMessage());
+        }
+    }
+
+    @Override
+    public BulkResponse bulk(Collection<Long> insertIds, Collection<Long> deleteIds) {
         try {
-            //准备request
-            DeleteRequest request = new DeleteRequest("hotel",id.toString());
-            //发送请求
-            client.delete(request,RequestOptions.DEFAULT);
+            //重建索引期间同时写入新旧两个索引
+            List<String> indices = indexService.writeIndices();
+            List<BulkItemResponse> items = new ArrayList<>((insertIds.size() + deleteIds.size()) * indices.size());
+            long tookInMillis = 0;
+            BulkRequest request = new BulkRequest();
+            List<HotelDoc> upserted = new ArrayList<>(insertIds.size());
+            List<Long> deleted = new ArrayList<>(deleteIds.size());
+            //批量查询酒店数据
+            Map<Long, Hotel> hotels = loadHotels(insertIds);
+            for (Long id : insertIds) {
+                Hotel hotel = hotels.get(id);
+                if (hotel == null) {
+                    //数据库中已经不存在，同步删除索引库中的文档
+                    addDelete(request, indices, id);
+                    deleted.add(id);
+                } else {
+                    HotelDoc hotelDoc = HotelDocConverter.convert(hotel);
+                    BytesReference source = HotelDocSerializer.toSource(hotelDoc);
+                    for (String index : indices) {
+                        request.add(new IndexRequest(index).id(id.toString()).source(source, XContentType.JSON));
+                    }
+                    upserted.add(hotelDoc);
+                }
+                //超过字节上限，先发送当前批次
+                if (request.estimatedSizeInBytes() >= bulkProperties.getMaxBytes()) {
+                    tookInMillis += sendBulk(request, items);
+                    request = new BulkRequest();
+                }
+            }
+            for (Long id : deleteIds) {
+                addDelete(request, indices, id);
+                deleted.add(id);
+                //删除请求很小，但数量多时同样可能超过字节上限
+                if (request.estimatedSizeInBytes() >= bulkProperties.getMaxBytes()) {
+                    tookInMillis += sendBulk(request, items);
+                    request = new BulkRequest();
+                }
+            }
+            if (request.numberOfActions() > 0) {
+                tookInMillis += sendBulk(request, items);
+            }
+            BulkResponse response = new BulkResponse(items.toArray(new BulkItemResponse[0]), tookInMillis);
+            onWritten(response, upserted, deleted);
+            return response;
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * 记录并发布写入成功的变更，写入失败的id不包含在内，重试成功后再记录
+     */
+    private void onWritten(BulkResponse response, List<HotelDoc> upserted, List<Long> deleted) {
+        Set<String> failedIds = new HashSet<>();
+        for (BulkItemResponse item : response.getItems()) {
+            if (item.isFailed()) {
+                failedIds.add(item.getId());
+            }
+        }
+        if (!failedIds.isEmpty()) {
+            upserted.removeIf(hotelDoc -> failedIds.contains(hotelDoc.getId().toString()));
+            deleted.removeIf(id -> failedIds.contains(id.toString()));
+        }
+        //重建期间记录删除，导入完成后在新索引上重新删除
+        for (HotelDoc hotelDoc : upserted) {
+            indexService.onUpserted(hotelDoc.getId());
+        }
+        for (Long id : deleted) {
+            indexService.onDeleted(id);
+        }
+        if (!upserted.isEmpty() || !deleted.isEmpty()) {
+            eventPublisher.publishEvent(new HotelChangedEvent(upserted, deleted));
+        }
+    }
+
+    private void addDelete(BulkRequest request, List<String> indices, Long id) {
+        for (String index : indices) {
+            request.add(new DeleteRequest(index, id.toString()));
+        }
+    }
+
+    /**
+     * 按批次查询酒店数据，每次IN查询的id数量不超过dbBatchSize
+     * @param ids 酒店id
+     * @return id与酒店数据的映射，数据库中不存在的id不在结果中
+     */
+    private Map<Long, Hotel> loadHotels(Collection<Long> ids) {
+        Map<Long, Hotel> hotels = new HashMap<>(ids.size() * 4 / 3 + 1);
+        int batchSize = bulkProperties.getDbBatchSize();
+        List<Long> batch = new ArrayList<>(Math.min(ids.size(), batchSize));
+        for (Long id : ids) {
+            batch.add(id);
+            if (batch.size() == batchSize) {
+                for (Hotel hotel : listByIds(batch)) {
+                    hotels.put(hotel.getId(), hotel);
+                }
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            for (Hotel hotel : listByIds(batch)) {
+                hotels.put(hotel.getId(), hotel);
+            }
+        }
+        return hotels;
+    }
+
+    private long sendBulk(BulkRequest request, List<BulkItemResponse> items) throws IOException {
+        BulkResponse response = esMetrics.bulk(client, request);
+        Collections.addAll(items, response.getItems());
+        return response.getTook().millis();
+    }
+
+    /**
+     * 解析品牌、城市、星级聚合结果
+     * @param aggregations 聚合结果
+     * @return 过滤项名称及对应的可选值
+     */
+    private Map<String, List<String>> handleAggregations(Aggregations aggregations) {
+        Map<String, List<String>> result = new HashMap<>();
+        //根据名称获取结果
+        List<String> brandList = getAggByName(aggregations,"brandAgg");
+        result.put("品牌",brandList);
+        List<String> cityList = getAggByName(aggregations,"cityAgg");
+        result.put("城市",cityList);
+        List<String> starList = getAggByName(aggregations,"starAgg");
+        result.put("星级",starList);
+        return result;
+    }
+
     /**
      * /
      * @param aggregations 聚合结果
@@ -181,16 +498,21 @@ public class HotelService extends ServiceImpl<HotelMapper, Hotel> implements IHo
     }
 
     private void bulidAggregation(SearchRequest request) {
+        //品牌、城市、星级的取值都很少，使用全局序号聚合，映射中已开启eager_global_ordinals
         request.source().aggregation(AggregationBuilders
-                .terms("brandAgg").field("brand").size(100));
+                .terms("brandAgg").field("brand").size(100).executionHint("global_ordinals"));
         request.source().aggregation(AggregationBuilders
-                .terms("cityAgg").field("city").size(100));
+                .terms("cityAgg").field("city").size(100).executionHint("global_ordinals"));
         request.source().aggregation(AggregationBuilders
-                .terms("starAgg").field("starName").size(100));
+                .terms("starAgg").field("starName").size(100).executionHint("global_ordinals"));
     }
 
     //构建bolleanQuery
     private void buildBaiscQuery(RequestParams params, SearchRequest request) {
+        request.source().query(functionScore(buildBoolQuery(params)));
+    }
+
+    private BoolQueryBuilder buildBoolQuery(RequestParams params) {
         BoolQueryBuilder boolQuery = QueryBuilders.boolQuery();
         //must关键字搜索
         String key = params.getKey();
@@ -199,6 +521,41 @@ public class HotelService extends ServiceImpl<HotelMapper, Hotel> implements IHo
         }else {
             boolQuery.must(QueryBuilders.matchQuery("all",key));
         }
+        addFilters(params, boolQuery);
+        return boolQuery;
+    }
+
+    private FunctionScoreQueryBuilder functionScore(BoolQueryBuilder boolQuery) {
+        //算分控制
+        FunctionScoreQueryBuilder functionScoreQuery = QueryBuilders.functionScoreQuery(
+                boolQuery,//原始查询  相关性算分
+                //function score 的数组
+                new FunctionScoreQueryBuilder.FilterFunctionBuilder[]{
+                        //其中一个function score元素
+                        new FunctionScoreQueryBuilder.FilterFunctionBuilder(
+                                //过滤条件
+                                QueryBuilders.termQuery("isAD", true),
+                                //算分函数
+                                ScoreFunctionBuilders.weightFactorFunction(10)
+                        )
+                });
+        return functionScoreQuery;
+    }
+
+    /**
+     * 过滤项查询只需要聚合，不需要算分：关键字也放在filter中，不使用function score
+     */
+    private BoolQueryBuilder buildFacetQuery(RequestParams params) {
+        BoolQueryBuilder boolQuery = QueryBuilders.boolQuery();
+        String key = params.getKey();
+        if(key!=null&&!"".equals(key.trim())){
+            boolQuery.filter(QueryBuilders.matchQuery("all",key));
+        }
+        addFilters(params, boolQuery);
+        return boolQuery;
+    }
+
+    private void addFilters(RequestParams params, BoolQueryBuilder boolQuery) {
         //城市
         if(params.getCity()!=null&&!"".equals(params.getCity().trim())){
             boolQuery.filter(QueryBuilders.termQuery("city", params.getCity()));
@@ -215,44 +572,309 @@ public class HotelService extends ServiceImpl<HotelMapper, Hotel> implements IHo
             boolQuery.filter(QueryBuilders.rangeQuery("price").gte(params.getMinPrice())
                     .lte(params.getMaxPrice()));
         }
+    }
 
-        //算分控制
-        FunctionScoreQueryBuilder functionScoreQuery = QueryBuilders.functionScoreQuery(
-                boolQuery,//原始查询  相关性算分
-                //function score 的数组
-                new FunctionScoreQueryBuilder.FilterFunctionBuilder[]{
-                        //其中一个function score元素
-                        new FunctionScoreQueryBuilder.FilterFunctionBuilder(
-                                //过滤条件
-                                QueryBuilders.termQuery("isAD", true),
-                                //算分函数
-                                ScoreFunctionBuilders.weightFactorFunction(10)
-                        )
+
+    /**
+     * 构建酒店列表的搜索请求
+     * @param params 请求参数
+     * @return 查询、排序、分页都已准备好的request
+     */
+    private SearchRequest buildSearchRequest(RequestParams params) {
+        //准备request
+        SearchRequest request = new SearchRequest(HOTEL_ALIAS);
+        //准备DSL
+        //query
+        buildBaiscQuery(params, request);
+
+        //排序
+        addSorts(params, request);
+        //返回的字段
+        addSourceFilter(params, request);
+        //分页
+        int page=params.getPage();
+        int size=params.getSize();
+        request.source().from((page-1)*size).size(size);
+        return request;
+    }
+
+    /**
+     * 游标翻页：在point in time上用search_after定位，每页的开销与翻到第几页无关。
+     * 排序值相同的文档按id排序，保证翻页不重复、不遗漏
+     */
+    private SearchRequest buildCursorRequest(RequestParams params, SearchCursor cursor) {
+        //使用point in time时不能指定索引
+        SearchRequest request = new SearchRequest().source(new SearchSourceBuilder());
+        request.setCcsMinimizeRoundtrips(false);
+        buildBaiscQuery(params, request);
+        addSorts(params, request);
+        if (request.source().sorts() == null) {
+            //指定排序后不再默认按得分排序
+            request.source().sort(SortBuilders.scoreSort());
+        }
+        request.source().sort(SortBuilders.fieldSort("id").order(SortOrder.ASC));
+        addSourceFilter(params, request);
+        request.source().size(params.getSize())
+                .pointInTimeBuilder(new PointInTimeBuilder(cursor.getPitId())
+                        .setKeepAlive(TimeValue.parseTimeValue(searchProperties.getPitKeepAlive(), "pit_keep_alive")));
+        if (cursor.getSearchAfter() != null) {
+            request.source().searchAfter(cursor.getSearchAfter());
+        }
+        return request;
+    }
+
+    private PageResult handleCursorResponse(RequestParams params, SearchResponse response) {
+        PageResult result = handleResponse(params, response);
+        SearchHit[] hits = response.getHits().getHits();
+        if (hits.length == 0 || hits.length < params.getSize()) {
+            //最后一页，提前释放point in time
+            closePit(response.pointInTimeId());
+        } else {
+            //每次查询返回的point in time id可能变化，使用最新的
+            result.setCursor(new SearchCursor(response.pointInTimeId(),
+                    hits[hits.length - 1].getSortValues()).encode());
+        }
+        return result;
+    }
+
+    private String parsePitId(Response response) throws IOException {
+        return JSON.parseObject(EntityUtils.toString(response.getEntity())).getString("id");
+    }
+
+    /**
+     * cursor为null时打开新的point in time查询第一页
+     */
+    private CompletableFuture<PageResult> cursorSearchAsync(RequestParams params, SearchCursor cursor) {
+        if (cursor == null) {
+            return openPitAsync().thenCompose(pitId -> sendAsync(CURSOR, buildCursorRequest(params, new SearchCursor(pitId, null)),
+                    response -> handleCursorResponse(params, response)));
+        }
+        CompletableFuture<PageResult> future = new CompletableFuture<>();
+        sendAsync(CURSOR, buildCursorRequest(params, cursor), response -> handleCursorResponse(params, response))
+                .whenComplete((page, e) -> {
+                    if (e == null) {
+                        future.complete(page);
+                    } else if (e instanceof ElasticsearchStatusException
+                            && ((ElasticsearchStatusException) e).status() == RestStatus.NOT_FOUND) {
+                        //point in time过期或已释放
+                        future.completeExceptionally(new CursorExpiredException(e));
+                    } else {
+                        future.completeExceptionally(e);
+                    }
                 });
-        request.source().query(functionScoreQuery);
+        return future;
+    }
+
+    private CompletableFuture<String> openPitAsync() {
+        return esMetrics.performAsync(client.getLowLevelClient(), PIT, openPitRequest()).thenApply(response -> {
+            try {
+                return parsePitId(response);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    //高级客户端没有提供point in time的接口，使用低级客户端
+    private Request openPitRequest() {
+        Request request = new Request("POST", "/" + HOTEL_ALIAS + "/_pit");
+        request.addParameter("keep_alive", searchProperties.getPitKeepAlive());
+        return request;
+    }
+
+    //释放失败也会在keep_alive后过期，不需要等待结果
+    private void closePit(String pitId) {
+        Request request = new Request("DELETE", "/_pit");
+        JSONObject body = new JSONObject();
+        body.put("id", pitId);
+        request.setJsonEntity(body.toJSONString());
+        esMetrics.performAsync(client.getLowLevelClient(), PIT, request).whenComplete((response, e) -> {
+            if (e != null) {
+                log.warn("释放point in time失败", e);
+            }
+        });
+    }
+
+    /**
+     * 排序：score按评价从高到低，price按价格从低到高，default按相关度。
+     * 有位置时再按距离排序，按评价、价格排序时距离是第二排序条件
+     */
+    private void addSorts(RequestParams params, SearchRequest request) {
+        String sortBy = params.getSortBy();
+        if (SORT_BY_SCORE.equals(sortBy)) {
+            request.source().sort(SortBuilders.fieldSort("score").order(SortOrder.DESC));
+        } else if (SORT_BY_PRICE.equals(sortBy)) {
+            //与索引排序一致，可以提前结束收集
+            request.source().sort(SortBuilders.fieldSort("price").order(SortOrder.ASC));
+        }
+        if (hasLocation(params)) {
+            request.source().sort(SortBuilders.geoDistanceSort("location",
+                    new GeoPoint(params.getLocation())).order(SortOrder.ASC).unit(DistanceUnit.KILOMETERS));
+        }
+    }
+
+    private void addSourceFilter(RequestParams params, SearchRequest request) {
+        if (!isFullView(params)) {
+            request.source().fetchSource(LIST_FIELDS, null);
+        }
+    }
+
+    private boolean isFullView(RequestParams params) {
+        return VIEW_FULL.equals(params.getView());
+    }
+
+    /**
+     * 游标翻页的排序值个数：评价/价格/相关度/距离中的一个，按评价、价格排序且有位置时再加距离，最后是id
+     */
+    private int cursorSortCount(RequestParams params) {
+        boolean fieldSort = SORT_BY_SCORE.equals(params.getSortBy()) || SORT_BY_PRICE.equals(params.getSortBy());
+        return fieldSort && hasLocation(params) ? 3 : 2;
+    }
+
+    /**
+     * 距离在排序值中的位置，没有按距离排序时为-1
+     */
+    private int distanceSortIndex(RequestParams params) {
+        if (!hasLocation(params)) {
+            return -1;
+        }
+        return SORT_BY_SCORE.equals(params.getSortBy()) || SORT_BY_PRICE.equals(params.getSortBy()) ? 1 : 0;
     }
 
+    /**
+     * 只按距离排序、请求的分页在候选集之内时，使用网格候选集
+     */
+    private boolean isGeoCellSearch(RequestParams params) {
+        SearchProperties.GeoCell geoCell = searchProperties.getGeoCell();
+        return geoCell.isEnabled() && isDistanceSort(params)
+                && params.getPage() * params.getSize() <= geoCell.getCandidates();
+    }
+
+    /**
+     * 只按距离排序时，先在附近查询
+     */
+    private boolean isNearbySearch(RequestParams params) {
+        return searchProperties.getNearby().isEnabled() && isDistanceSort(params);
+    }
+
+    private boolean isDistanceSort(RequestParams params) {
+        return hasLocation(params)
+                && !SORT_BY_SCORE.equals(params.getSortBy()) && !SORT_BY_PRICE.equals(params.getSortBy());
+    }
+
+    private String geoCell(RequestParams params) {
+        return GeoCandidates.cellOf(new GeoPoint(params.getLocation()), searchProperties.getGeoCell().getPrecision());
+    }
+
+    //按离网格中心的距离取候选集，过滤条件和返回的字段与原请求相同
+    private RequestParams geoCandidateParams(RequestParams params, String cell) {
+        RequestParams candidateParams = new RequestParams();
+        BeanUtils.copyProperties(params, candidateParams);
+        GeoPoint center = GeoCandidates.center(cell);
+        candidateParams.setLocation(center.getLat() + ", " + center.getLon());
+        candidateParams.setPage(1);
+        candidateParams.setSize(searchProperties.getGeoCell().getCandidates());
+        return candidateParams;
+    }
+
+    private boolean hasLocation(RequestParams params) {
+        String location = params.getLocation();
+        return location != null && !"".equals(location.trim());
+    }
+
+    /**
+     * 限定在location附近radiusKm范围内的列表查询，统计范围内的数量用于判断是否够一页
+     */
+    private SearchRequest buildNearbyRequest(RequestParams params, double radiusKm) {
+        SearchRequest request = new SearchRequest(HOTEL_ALIAS);
+        BoolQueryBuilder boolQuery = buildBoolQuery(params);
+        boolQuery.filter(QueryBuilders.geoDistanceQuery("location")
+                .point(new GeoPoint(params.getLocation())).distance(radiusKm, DistanceUnit.KILOMETERS));
+        request.source().query(functionScore(boolQuery)).trackTotalHits(true);
+        addSorts(params, request);
+        addSourceFilter(params, request);
+        int page=params.getPage();
+        int size=params.getSize();
+        request.source().from((page-1)*size).size(size);
+        return request;
+    }
+
+    //符合条件的酒店总数，与位置无关，可以被分片请求缓存
+    private SearchRequest buildCountRequest(RequestParams params) {
+        SearchRequest request = new SearchRequest(HOTEL_ALIAS);
+        request.source().size(0).trackTotalHits(true).query(buildFacetQuery(params));
+        request.requestCache(true);
+        return request;
+    }
+
+    private SearchRequest buildFiltersRequest(RequestParams params) {
+        SearchRequest request = new SearchRequest(HOTEL_ALIAS);
+        //只返回聚合结果，不统计总数，结果可以被分片请求缓存
+        request.source().size(0).trackTotalHits(false);
+        request.requestCache(true);
+        //query 限定查询范围
+        request.source().query(buildFacetQuery(params));
+        //聚合
+        bulidAggregation(request);
+        return request;
+    }
+
+    //列表查询和聚合使用同一个request，一次请求同时返回分页结果和过滤项
+    private SearchRequest buildFacetsRequest(RequestParams params) {
+        SearchRequest request = buildSearchRequest(params);
+        bulidAggregation(request);
+        return request;
+    }
+
+    private SearchRequest buildSuggestionRequest(String prefix) {
+        //准备request
+        SearchRequest request = new SearchRequest(HOTEL_ALIAS);
+        //准备DSL
+        request.source().suggest(new SuggestBuilder().addSuggestion(
+                "suggestions", SuggestBuilders.completionSuggestion("suggestion")
+                        .prefix(prefix).skipDuplicates(true).size(10)));
+        return request;
+    }
+
+    private FacetPageResult handleFacetResponse(RequestParams params, SearchResponse response) {
+        PageResult pageResult = handleResponse(params, response);
+        return new FacetPageResult(pageResult.getTotal(), pageResult.getHotels(),
+                handleAggregations(response.getAggregations()));
+    }
+
+    private List<String> handleSuggestions(SearchResponse response) {
+        //解析结果
+        Suggest suggest = response.getSuggest();
+        //根据补全名称获取补全结果
+        CompletionSuggestion suggestion = suggest.getSuggestion("suggestions");
+        List<CompletionSuggestion.Entry.Option> options = suggestion.getOptions();
+        List<String> result = new ArrayList<>(options.size());
+        for (CompletionSuggestion.Entry.Option option : options) {
+            String test = option.getText().toString();
+            result.add(test);
+        }
+        return result;
+    }
 
-    private PageResult handleResponse(SearchRequest request) throws IOException {
-        //3.发送请求
-        SearchResponse response = client.search(request, RequestOptions.DEFAULT);
-        //4.解析结果
+    private PageResult handleResponse(RequestParams params, SearchResponse response) {
+        int distanceIndex = distanceSortIndex(params);
+        Class<? extends HotelListDoc> type = isFullView(params) ? HotelDoc.class : HotelListDoc.class;
+        //解析结果
         SearchHits searchHits = response.getHits();
-        //4.1查询条数
+        //查询条数
         long value = searchHits.getTotalHits().value;
-        //4.2获取数组
+        //获取数组
         SearchHit[] hits = searchHits.getHits();
-        //4.3遍历hits
-        ArrayList<HotelDoc> hotels = new ArrayList<>();
+        //遍历hits
+        ArrayList<HotelListDoc> hotels = new ArrayList<>(hits.length);
         for (SearchHit hit : hits) {
-            //4.4获取souce
+            //获取souce
             String json = hit.getSourceAsString();
-            HotelDoc hotelDoc = JSON.parseObject(json, HotelDoc.class);
-            //获取高亮结果
+            HotelListDoc hotelDoc = JSON.parseObject(json, type);
             //获取排序值
             Object[] sortValues = hit.getSortValues();
-            if(sortValues.length>0){
-                Object sortValue = sortValues[0];
+            if(distanceIndex>=0&&sortValues.length>distanceIndex){
+                Object sortValue = sortValues[distanceIndex];
                 hotelDoc.setDistance(sortValue);
             }
             hotels.add(hotelDoc);
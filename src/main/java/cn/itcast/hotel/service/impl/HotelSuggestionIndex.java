@@ -0,0 +1,226 @@
+package cn.itcast.hotel.service.impl;
+
+import cn.itcast.hotel.config.SuggestionProperties;
+import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelChangedEvent;
+import cn.itcast.hotel.pojo.HotelDoc;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 本地自动补全：用所有酒店的suggestion字段构建前缀树，查询不需要访问索引库。
+ * 启动时从数据库加载，之后根据MQ写入成功的变更事件增量维护每个补全词的权重。
+ * 前缀树不做增量修改：补全词有变化时用全部权重重新生成整棵树再整体替换，查询不加锁，
+ * 生成的耗时与补全词总数成正比，所以只修改价格等字段的变更不重新生成，短时间内的多次变更合并成一次。
+ * 加载期间收到变更的酒店以变更为准，不会被加载时从数据库读到的旧数据覆盖。
+ * 补全词的权重是包含它的酒店数量。
+ */
+@Slf4j
+@Component
+public class HotelSuggestionIndex {
+
+    @Autowired
+    private HotelMapper hotelMapper;
+
+    @Autowired
+    private SuggestionProperties suggestionProperties;
+
+    //每个酒店的补全词，用于删除或修改时减去旧的词
+    private final Map<Long, Set<String>> termsByHotel = new HashMap<>();
+    //补全词 -> 包含它的酒店数量
+    private final Map<String, Integer> weights = new HashMap<>();
+    private volatile SuggestionTrie trie = SuggestionTrie.EMPTY;
+    private volatile boolean ready;
+    //加载期间收到变更的酒店，加载时跳过从数据库读到的旧数据，不加载时为null
+    private Set<Long> changedWhileLoading;
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 加载完成前返回false，调用方应该查询索引库
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public List<String> suggest(String prefix) {
+        return trie.suggest(prefix, suggestionProperties.getSize());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!suggestionProperties.isLocalEnabled()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hotel-suggestion-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        //后台加载，不影响启动
+        scheduler.execute(() -> {
+            try {
+                load();
+            } catch (Exception e) {
+                log.error("加载自动补全数据失败，继续使用索引库补全", e);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 从数据库加载所有酒店的补全词
+     */
+    public void load() {
+        long start = System.currentTimeMillis();
+        int batchSize = suggestionProperties.getLoadBatchSize();
+        long lastId = 0;
+        int count = 0;
+        synchronized (this) {
+            changedWhileLoading = new HashSet<>();
+        }
+        try {
+            while (true) {
+                List<Hotel> hotels = hotelMapper.selectList(new QueryWrapper<Hotel>()
+                        .select("id", "name", "address", "brand", "business")
+                        .gt("id", lastId).orderByAsc("id").last("limit " + batchSize));
+                synchronized (this) {
+                    for (Hotel hotel : hotels) {
+                        //查询之后收到的变更更新
+                        if (!changedWhileLoading.contains(hotel.getId())) {
+                            put(hotel.getId(), HotelDocConverter.convert(hotel).getSuggestion());
+                        }
+                    }
+                }
+                count += hotels.size();
+                if (hotels.size() < batchSize) {
+                    break;
+                }
+                lastId = hotels.get(hotels.size() - 1).getId();
+            }
+        } finally {
+            synchronized (this) {
+                changedWhileLoading = null;
+            }
+        }
+        rebuild();
+        ready = true;
+        log.info("自动补全加载完成，{}个酒店，{}个补全词，耗时{}ms", count, trie.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 酒店写入索引库成功后，同步更新补全词
+     */
+    @EventListener
+    public void onHotelChanged(HotelChangedEvent event) {
+        if (!suggestionProperties.isLocalEnabled()) {
+            return;
+        }
+        boolean changed = false;
+        synchronized (this) {
+            for (Long id : event.getDeleted()) {
+                changed |= remove(id);
+                if (changedWhileLoading != null) {
+                    changedWhileLoading.add(id);
+                }
+            }
+            for (HotelDoc hotelDoc : event.getUpserted()) {
+                changed |= put(hotelDoc.getId(), hotelDoc.getSuggestion());
+                if (changedWhileLoading != null) {
+                    changedWhileLoading.add(hotelDoc.getId());
+                }
+            }
+        }
+        if (changed) {
+            scheduleRebuild();
+        }
+    }
+
+    /**
+     * 补全词没有变化时返回false
+     */
+    private boolean put(Long id, Collection<String> suggestion) {
+        //同一个酒店重复的词只算一次
+        Set<String> terms = new LinkedHashSet<>();
+        if (suggestion != null) {
+            for (String term : suggestion) {
+                if (term != null && !term.trim().isEmpty()) {
+                    terms.add(term.trim());
+                }
+            }
+        }
+        if (terms.equals(termsByHotel.get(id))) {
+            return false;
+        }
+        remove(id);
+        termsByHotel.put(id, terms);
+        for (String term : terms) {
+            weights.merge(term, 1, Integer::sum);
+        }
+        return true;
+    }
+
+    private boolean remove(Long id) {
+        Set<String> terms = termsByHotel.remove(id);
+        if (terms == null) {
+            return false;
+        }
+        for (String term : terms) {
+            weights.computeIfPresent(term, (key, weight) -> weight > 1 ? weight - 1 : null);
+        }
+        return true;
+    }
+
+    //延迟rebuildDelayMs后生成，期间的变更由同一次生成处理
+    private void scheduleRebuild() {
+        long delay = suggestionProperties.getRebuildDelayMs();
+        if (scheduler == null || delay <= 0) {
+            rebuild();
+            return;
+        }
+        if (!rebuildScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            scheduler.schedule(() -> {
+                //先清除标记，生成期间的变更会再安排一次
+                rebuildScheduled.set(false);
+                rebuild();
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            rebuildScheduled.set(false);
+            rebuild();
+        }
+    }
+
+    private synchronized void rebuild() {
+        trie = SuggestionTrie.build(Collections.unmodifiableMap(weights), suggestionProperties.getSize());
+    }
+}
@@ -0,0 +1,99 @@
+package cn.itcast.hotel.service.impl;
+
+import cn.itcast.hotel.config.SearchProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 合并同时进行的相同查询(single flight)：第一个请求(leader)查询索引库，查询完成前到达的相同请求(follower)等待同一个结果，
+ * 只发送一次请求、解析一次响应。
+ * 查询失败(包括索引库超时)时所有等待的请求收到同一个异常，完成后立即移除，下一个请求重新查询，不会缓存失败。
+ * 每个请求拿到的是各自的future，某个请求超时取消不影响其他请求。
+ * hotel.search.coalesce{role=follower}/所有请求即合并的比例
+ */
+@Component
+public class SearchCoalescer {
+    //key的分隔符，与缓存的key一样不会出现在用户输入中
+    private static final char SEPARATOR = '\u0001';
+
+    @Autowired
+    private SearchProperties searchProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Counter[]> counters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("hotel.search.coalesce.in.flight", inFlight, Map::size)
+                .description("正在查询索引库、可以被合并的查询数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * endpoint为EsCallMetrics中的接口名，key是规范化后的查询条件
+     */
+    public <V> CompletableFuture<V> executeAsync(String endpoint, String key, Supplier<CompletableFuture<V>> call) {
+        if (!searchProperties.isCoalesce()) {
+            return call.get();
+        }
+        String flightKey = endpoint + SEPARATOR + key;
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> leader = join(endpoint, flightKey, flight);
+        if (leader != null) {
+            return leader.thenApply(Function.identity());
+        }
+        try {
+            call.get().whenComplete((value, e) -> {
+                //先移除再完成，完成后到达的请求重新查询
+                inFlight.remove(flightKey, flight);
+                if (e != null) {
+                    flight.completeExceptionally(e instanceof CompletionException && e.getCause() != null
+                            ? e.getCause() : e);
+                } else {
+                    flight.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(flightKey, flight);
+            flight.completeExceptionally(e);
+        }
+        //leader也返回副本，调用方取消时不影响等待同一结果的请求
+        return flight.thenApply(Function.identity());
+    }
+
+    /**
+     * 已经有相同的查询时返回它的future，否则登记flight，当前请求作为leader返回null
+     */
+    @SuppressWarnings("unchecked")
+    private <V> CompletableFuture<V> join(String endpoint, String flightKey, CompletableFuture<V> flight) {
+        CompletableFuture<V> leader = (CompletableFuture<V>) inFlight.putIfAbsent(flightKey, flight);
+        Counter[] roles = counters.computeIfAbsent(endpoint, this::register);
+        roles[leader == null ? 0 : 1].increment();
+        return leader;
+    }
+
+    private Counter[] register(String endpoint) {
+        return new Counter[]{counter(endpoint, "leader"), counter(endpoint, "follower")};
+    }
+
+    private Counter counter(String endpoint, String role) {
+        return Counter.builder("hotel.search.coalesce")
+                .description("查询索引库(leader)和合并到进行中查询(follower)的请求数")
+                .tags("endpoint", endpoint, "role", role)
+                .register(meterRegistry);
+    }
+}
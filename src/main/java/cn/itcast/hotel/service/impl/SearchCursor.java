@@ -0,0 +1,66 @@
+package cn.itcast.hotel.service.impl;
+
+import cn.itcast.hotel.service.InvalidCursorException;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * 游标翻页的游标：point in time id和上一页最后一条数据的排序值，Base64编码后返回给前端
+ */
+final class SearchCursor {
+    private final String pitId;
+    //为null表示第一页
+    private final Object[] searchAfter;
+
+    SearchCursor(String pitId, Object[] searchAfter) {
+        this.pitId = pitId;
+        this.searchAfter = searchAfter;
+    }
+
+    String getPitId() {
+        return pitId;
+    }
+
+    Object[] getSearchAfter() {
+        return searchAfter;
+    }
+
+    String encode() {
+        JSONObject json = new JSONObject();
+        json.put("pit", pitId);
+        json.put("after", searchAfter);
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(json.toJSONString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param sortCount 当前查询条件的排序值个数，游标中的排序值个数不同时索引库无法继续翻页
+     */
+    static SearchCursor decode(String token, int sortCount) {
+        try {
+            JSONObject json = JSON.parseObject(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+            String pitId = json.getString("pit");
+            if (pitId == null || pitId.trim().isEmpty()) {
+                throw new IllegalArgumentException("缺少point in time id");
+            }
+            JSONArray after = json.getJSONArray("after");
+            if (after == null || after.size() != sortCount) {
+                throw new IllegalArgumentException("排序值个数应为" + sortCount);
+            }
+            Object[] searchAfter = new Object[after.size()];
+            for (int i = 0; i < searchAfter.length; i++) {
+                Object value = after.get(i);
+                //小数解析为BigDecimal，search_after不支持
+                searchAfter[i] = value instanceof BigDecimal ? ((BigDecimal) value).doubleValue() : value;
+            }
+            return new SearchCursor(pitId, searchAfter);
+        } catch (RuntimeException e) {
+            throw new InvalidCursorException(token, e);
+        }
+    }
+}
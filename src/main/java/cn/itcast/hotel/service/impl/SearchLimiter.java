@@ -0,0 +1,198 @@
+package cn.itcast.hotel.service.impl;
+
+import cn.itcast.hotel.config.LimitProperties;
+import cn.itcast.hotel.service.SearchRejectedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static cn.itcast.hotel.service.impl.EsCallMetrics.FILTERS;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.SUGGESTION;
+
+/**
+ * 查询索引库前的准入控制。列表、过滤项、自动补全各自一个并发上限(AIMD)：
+ * 往返时间超过阈值或失败时上限按比例减小，否则并发用到上限的一半以上时缓慢增加。
+ * 超过上限的请求不排队，返回过期的缓存或降级结果，都没有时抛出SearchRejectedException。
+ * 带分面的列表是页面加载的查询，与列表共用并发；列表的并发接近上限时，单独的过滤项和自动补全先被拒绝。
+ * 只限制真正访问索引库的请求，命中缓存和本地计数的请求不受影响
+ */
+@Slf4j
+@Component
+public class SearchLimiter {
+    @Autowired
+    private LimitProperties limitProperties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private AimdLimit list;
+    private AimdLimit filters;
+    private AimdLimit suggestion;
+
+    @PostConstruct
+    public void init() {
+        list = new AimdLimit("list", limitProperties.getList());
+        filters = new AimdLimit("filters", limitProperties.getFilters());
+        suggestion = new AimdLimit("suggestion", limitProperties.getSuggestion());
+    }
+
+    /**
+     * endpoint为EsCallMetrics中的接口名，被拒绝时返回fallback的结果，fallback为null或返回null时抛出SearchRejectedException
+     */
+    public <T> T execute(String endpoint, Supplier<T> call, Supplier<T> fallback) {
+        if (!limitProperties.isEnabled()) {
+            return call.get();
+        }
+        AimdLimit limit = limitOf(endpoint);
+        if (!tryAcquire(endpoint, limit)) {
+            return reject(endpoint, fallback);
+        }
+        long start = System.nanoTime();
+        boolean dropped = true;
+        try {
+            T result = call.get();
+            dropped = false;
+            return result;
+        } finally {
+            limit.release(start, dropped);
+        }
+    }
+
+    public void execute(String endpoint, Runnable call) {
+        execute(endpoint, () -> {
+            call.run();
+            return Boolean.TRUE;
+        }, null);
+    }
+
+    /**
+     * 异步查询在future完成时释放并发，被拒绝时返回已完成的future
+     */
+    public <T> CompletableFuture<T> executeAsync(String endpoint, Supplier<CompletableFuture<T>> call,
+                                                 Supplier<T> fallback) {
+        if (!limitProperties.isEnabled()) {
+            return call.get();
+        }
+        AimdLimit limit = limitOf(endpoint);
+        if (!tryAcquire(endpoint, limit)) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            try {
+                future.complete(reject(endpoint, fallback));
+            } catch (SearchRejectedException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            limit.release(start, true);
+            throw e;
+        }
+        return future.whenComplete((result, e) -> limit.release(start, e != null));
+    }
+
+    /**
+     * 列表的并发接近上限，低优先级的查询会被拒绝，可以选择不做的工作(例如聚合)应该跳过
+     */
+    public boolean isListBusy() {
+        return limitProperties.isEnabled() && list.inflight.get() >= list.limit * limitProperties.getShedLowPriorityAt();
+    }
+
+    private boolean tryAcquire(String endpoint, AimdLimit limit) {
+        //低优先级的查询在列表繁忙时直接拒绝，不占用索引库
+        if (isLowPriority(endpoint) && isListBusy()) {
+            return false;
+        }
+        return limit.tryAcquire();
+    }
+
+    private <T> T reject(String endpoint, Supplier<T> fallback) {
+        T result = fallback == null ? null : fallback.get();
+        Counter.builder("hotel.limit.rejected")
+                .description("超过并发上限被拒绝的查询")
+                .tags("endpoint", endpoint, "degraded", String.valueOf(result != null))
+                .register(meterRegistry)
+                .increment();
+        if (result == null) {
+            throw new SearchRejectedException(endpoint);
+        }
+        log.debug("{}超过并发上限，返回降级结果", endpoint);
+        return result;
+    }
+
+    private AimdLimit limitOf(String endpoint) {
+        switch (endpoint) {
+            case FILTERS:
+                return filters;
+            case SUGGESTION:
+                return suggestion;
+            default:
+                return list;
+        }
+    }
+
+    private static boolean isLowPriority(String endpoint) {
+        return SUGGESTION.equals(endpoint) || FILTERS.equals(endpoint);
+    }
+
+    private class AimdLimit {
+        private final LimitProperties.Budget budget;
+        private final long thresholdNanos;
+        private final AtomicInteger inflight = new AtomicInteger();
+        private volatile double limit;
+        //最近一次减小上限的时间，在这之前发出的请求不再减小，避免同一批慢请求把上限连续减到最小
+        private long lastDecrease = System.nanoTime();
+
+        AimdLimit(String name, LimitProperties.Budget budget) {
+            this.budget = budget;
+            this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(budget.getLatencyThresholdMs());
+            this.limit = Math.min(Math.max(budget.getInitialLimit(), budget.getMinLimit()), budget.getMaxLimit());
+            Gauge.builder("hotel.limit.limit", this, l -> l.limit)
+                    .description("当前的并发上限")
+                    .tag("budget", name)
+                    .register(meterRegistry);
+            Gauge.builder("hotel.limit.inflight", inflight, AtomicInteger::get)
+                    .description("正在访问索引库的请求数")
+                    .tag("budget", name)
+                    .register(meterRegistry);
+        }
+
+        boolean tryAcquire() {
+            while (true) {
+                int current = inflight.get();
+                if (current >= (int) limit) {
+                    return false;
+                }
+                if (inflight.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        synchronized void release(long start, boolean dropped) {
+            int current = inflight.getAndDecrement();
+            long now = System.nanoTime();
+            if (dropped || now - start > thresholdNanos) {
+                if (start - lastDecrease > 0) {
+                    limit = Math.max(budget.getMinLimit(), limit * budget.getBackoffRatio());
+                    lastDecrease = now;
+                }
+            } else if (current * 2 >= limit) {
+                //每完成一轮(上限个)请求加1，与TCP的拥塞窗口一样
+                limit = Math.min(budget.getMaxLimit(), limit + 1 / limit);
+            }
+        }
+    }
+}
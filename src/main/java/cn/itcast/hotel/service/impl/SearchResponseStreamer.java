@@ -0,0 +1,165 @@
+package cn.itcast.hotel.service.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 把ES的查询响应直接转换为列表页的json：{"total":n,"hotels":[_source, ...]}。
+ * 只扫描响应中的token记录位置，每条数据的_source和距离按原始字节写出，不创建对象、不重新序列化。
+ */
+final class SearchResponseStreamer {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final byte[] TOTAL = "{\"total\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HOTELS = ",\"hotels\":[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DISTANCE = "\"distance\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END = "]}".getBytes(StandardCharsets.UTF_8);
+
+    private SearchResponseStreamer() {
+    }
+
+    /**
+     * @param response ES返回的_search响应
+     * @param distanceIndex 距离在排序值中的位置，-1表示不输出距离
+     * @param out 输出流
+     */
+    static void write(byte[] response, int distanceIndex, OutputStream out) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if ("hits".equals(name)) {
+                    writeHits(parser, response, distanceIndex, out);
+                    return;
+                }
+                parser.skipChildren();
+            }
+            throw new IOException("响应中没有hits");
+        }
+    }
+
+    private static void writeHits(JsonParser parser, byte[] response, int distanceIndex, OutputStream out)
+            throws IOException {
+        expect(parser.currentToken(), JsonToken.START_OBJECT);
+        out.write(TOTAL);
+        boolean totalWritten = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("total".equals(name)) {
+                //7.x默认返回{"value":n,"relation":"eq"}
+                if (token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String field = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("value".equals(field)) {
+                            writeToken(parser, response, out);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    writeToken(parser, response, out);
+                }
+                totalWritten = true;
+            } else if ("hits".equals(name)) {
+                if (!totalWritten) {
+                    out.write('0');
+                    totalWritten = true;
+                }
+                out.write(HOTELS);
+                boolean first = true;
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    if (!first) {
+                        out.write(',');
+                    }
+                    writeHit(parser, response, distanceIndex, out);
+                    first = false;
+                }
+                out.write(END);
+                return;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (!totalWritten) {
+            out.write('0');
+        }
+        out.write(HOTELS);
+        out.write(END);
+    }
+
+    private static void writeHit(JsonParser parser, byte[] response, int distanceIndex, OutputStream out)
+            throws IOException {
+        int sourceStart = -1, sourceEnd = -1;
+        int distanceStart = -1, distanceEnd = -1;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if ("_source".equals(name)) {
+                sourceStart = offset(parser.getTokenLocation().getByteOffset());
+                parser.skipChildren();
+                sourceEnd = offset(parser.getCurrentLocation().getByteOffset());
+            } else if ("sort".equals(name) && distanceIndex >= 0) {
+                int index = 0;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (index++ == distanceIndex) {
+                        distanceStart = offset(parser.getTokenLocation().getByteOffset());
+                        distanceEnd = offset(parser.getCurrentLocation().getByteOffset());
+                    }
+                    parser.skipChildren();
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (sourceStart < 0) {
+            out.write('{');
+            out.write('}');
+            return;
+        }
+        if (distanceStart < 0) {
+            out.write(response, sourceStart, sourceEnd - sourceStart);
+            return;
+        }
+        //去掉_source最后的}，拼接距离
+        out.write(response, sourceStart, sourceEnd - 1 - sourceStart);
+        if (!isEmptyObject(response, sourceStart, sourceEnd)) {
+            out.write(',');
+        }
+        out.write(DISTANCE);
+        out.write(response, distanceStart, distanceEnd - distanceStart);
+        out.write('}');
+    }
+
+    private static void writeToken(JsonParser parser, byte[] response, OutputStream out) throws IOException {
+        int start = offset(parser.getTokenLocation().getByteOffset());
+        int end = offset(parser.getCurrentLocation().getByteOffset());
+        out.write(response, start, end - start);
+    }
+
+    //{}之间只有空白
+    private static boolean isEmptyObject(byte[] response, int start, int end) {
+        for (int i = start + 1; i < end - 1; i++) {
+            if (response[i] != ' ' && response[i] != '\n' && response[i] != '\r' && response[i] != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int offset(long offset) {
+        return (int) offset;
+    }
+
+    private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new IOException("无法解析的响应，期望" + expected + "，实际" + actual);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package cn.itcast.hotel.service.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * 不可变的前缀树，所有节点保存在数组中。
+ * 每个节点预先算好权重最高的前topK个补全词，查询时只需按前缀逐个字符找到节点，与词的总数无关。
+ * 匹配时忽略大小写，返回原始写法。
+ */
+public final class SuggestionTrie {
+    public static final SuggestionTrie EMPTY = build(Collections.emptyMap(), 0);
+
+    //补全词，按小写后的字典序排列
+    private final String[] terms;
+    //节点的字符，子节点按字符升序连续存放
+    private final char[] labels;
+    private final int[] childStart;
+    private final int[] childCount;
+    //节点的补全结果在topTerms中的位置，内容是terms的下标
+    private final int[] topStart;
+    private final int[] topCount;
+    private final int[] topTerms;
+
+    private SuggestionTrie(String[] terms, char[] labels, int[] childStart, int[] childCount,
+                           int[] topStart, int[] topCount, int[] topTerms) {
+        this.terms = terms;
+        this.labels = labels;
+        this.childStart = childStart;
+        this.childCount = childCount;
+        this.topStart = topStart;
+        this.topCount = topCount;
+        this.topTerms = topTerms;
+    }
+
+    /**
+     * @param weights 补全词和权重，权重相同时按字典序
+     * @param topK 每个前缀最多返回的条数
+     */
+    public static SuggestionTrie build(Map<String, Integer> weights, int topK) {
+        //大小写不同的词只保留权重最高的写法
+        TreeMap<String, String> byKey = new TreeMap<>();
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            String key = normalize(entry.getKey());
+            if (key.isEmpty()) {
+                continue;
+            }
+            String previous = byKey.get(key);
+            if (previous == null || weights.get(previous) < entry.getValue()
+                    || (weights.get(previous).equals(entry.getValue()) && entry.getKey().compareTo(previous) < 0)) {
+                byKey.put(key, entry.getKey());
+            }
+        }
+        int n = byKey.size();
+        String[] keys = byKey.keySet().toArray(new String[0]);
+        String[] terms = byKey.values().toArray(new String[0]);
+        int[] termWeights = new int[n];
+        int totalChars = 0;
+        for (int i = 0; i < n; i++) {
+            termWeights[i] = weights.get(terms[i]);
+            totalChars += keys[i].length();
+        }
+
+        //节点数不会超过字符总数+1
+        int capacity = totalChars + 1;
+        char[] labels = new char[capacity];
+        int[] childStart = new int[capacity];
+        int[] childCount = new int[capacity];
+        int[] topStart = new int[capacity];
+        int[] topCount = new int[capacity];
+        IntList topTerms = new IntList(Math.min(n, topK) * 4 + 16);
+
+        //每个节点对应keys中的一段连续区间[lo, hi)，区间内的词都以该节点的前缀开头。按层次遍历，兄弟节点连续存放
+        Deque<int[]> queue = new ArrayDeque<>();
+        queue.add(new int[]{0, 0, n, 0});
+        int size = 1;
+        Comparator<Integer> byRank = (a, b) -> termWeights[a] != termWeights[b]
+                ? Integer.compare(termWeights[a], termWeights[b]) : Integer.compare(b, a);
+        while (!queue.isEmpty()) {
+            int[] node = queue.poll();
+            int index = node[0], lo = node[1], hi = node[2], depth = node[3];
+
+            //区间内权重最高的topK个
+            PriorityQueue<Integer> heap = new PriorityQueue<>(byRank);
+            for (int i = lo; i < hi; i++) {
+                heap.add(i);
+                if (heap.size() > topK) {
+                    heap.poll();
+                }
+            }
+            int count = heap.size();
+            int start = topTerms.size;
+            topTerms.grow(count);
+            for (int i = count - 1; i >= 0; i--) {
+                topTerms.values[start + i] = heap.poll();
+            }
+            topStart[index] = start;
+            topCount[index] = count;
+
+            //跳过长度等于当前深度的词，剩下的按下一个字符分组
+            int i = lo;
+            while (i < hi && keys[i].length() == depth) {
+                i++;
+            }
+            childStart[index] = size;
+            while (i < hi) {
+                char c = keys[i].charAt(depth);
+                int j = i + 1;
+                while (j < hi && keys[j].charAt(depth) == c) {
+                    j++;
+                }
+                labels[size] = c;
+                queue.add(new int[]{size, i, j, depth + 1});
+                size++;
+                i = j;
+            }
+            childCount[index] = size - childStart[index];
+        }
+        return new SuggestionTrie(terms, Arrays.copyOf(labels, size), Arrays.copyOf(childStart, size),
+                Arrays.copyOf(childCount, size), Arrays.copyOf(topStart, size), Arrays.copyOf(topCount, size),
+                Arrays.copyOf(topTerms.values, topTerms.size));
+    }
+
+    /**
+     * 查询前缀的补全结果，按权重从高到低
+     */
+    public List<String> suggest(String prefix, int size) {
+        if (prefix == null) {
+            return Collections.emptyList();
+        }
+        String key = normalize(prefix);
+        if (key.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int node = 0;
+        for (int i = 0; i < key.length(); i++) {
+            node = child(node, key.charAt(i));
+            if (node < 0) {
+                return Collections.emptyList();
+            }
+        }
+        int count = Math.min(size, topCount[node]);
+        List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(terms[topTerms[topStart[node] + i]]);
+        }
+        return result;
+    }
+
+    public int size() {
+        return terms.length;
+    }
+
+    //在子节点中二分查找字符
+    private int child(int node, char c) {
+        int lo = childStart[node];
+        int hi = lo + childCount[node] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (labels[mid] < c) {
+                lo = mid + 1;
+            } else if (labels[mid] > c) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static class IntList {
+        private int[] values;
+        private int size;
+
+        private IntList(int capacity) {
+            values = new int[capacity];
+        }
+
+        private void grow(int count) {
+            if (size + count > values.length) {
+                values = Arrays.copyOf(values, Math.max(values.length * 2, size + count));
+            }
+            size += count;
+        }
+    }
+}
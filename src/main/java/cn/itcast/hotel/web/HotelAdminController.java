@@ -0,0 +1,41 @@
+package cn.itcast.hotel.web;
+
+import cn.itcast.hotel.pojo.RebuildStatus;
+import cn.itcast.hotel.pojo.ReindexResult;
+import cn.itcast.hotel.service.IHotelIndexService;
+import cn.itcast.hotel.service.IHotelReindexService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+
+import static cn.itcast.hotel.constants.HotelConstants.HOTEL_ALIAS;
+
+@RestController
+@RequestMapping("/admin/hotel")
+public class HotelAdminController {
+
+    @Autowired
+    private IHotelReindexService reindexService;
+
+    @Autowired
+    private IHotelIndexService indexService;
+
+    @PostMapping("/reindex")
+    public ReindexResult reindex(@RequestParam(value = "index", defaultValue = HOTEL_ALIAS) String index){
+        return reindexService.reindex(index);
+    }
+
+    /**
+     * 重建在后台执行，立即返回任务状态
+     */
+    @PostMapping("/rebuild")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public RebuildStatus rebuild(){
+        return indexService.rebuild();
+    }
+
+    @GetMapping("/rebuild")
+    public RebuildStatus rebuildStatus(){
+        return indexService.getRebuildStatus();
+    }
+}
@@ -1,32 +1,57 @@
 package cn.itcast.hotel.web;
 
+import cn.itcast.hotel.pojo.FacetPageResult;
 import cn.itcast.hotel.pojo.PageResult;
 import cn.itcast.hotel.pojo.RequestParams;
+import cn.itcast.hotel.service.IHotelAsyncService;
 import cn.itcast.hotel.service.IHotelService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 @RequestMapping("/hotel")
 public class HotelController {
 
+    //返回CompletableFuture，等待索引库响应期间释放tomcat线程
     @Autowired
-    private IHotelService hotelService;
+    private IHotelAsyncService hotelService;
+
+    @Autowired
+    private IHotelService hotelSyncService;
 
     @PostMapping("/list")
-    public PageResult search(@RequestBody RequestParams params){
-        return hotelService.search(params);
+    public CompletableFuture<PageResult> search(@RequestBody RequestParams params){
+        return hotelService.searchAsync(params);
+    }
+
+    /**
+     * 流式返回列表：ES返回的_source直接写入响应，只拼接距离，不支持游标翻页和结果缓存
+     */
+    @PostMapping(value = "/list", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> searchStream(@RequestBody RequestParams params){
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(out -> hotelSyncService.writeSearch(params, out));
     }
 
     @PostMapping("/filters")
-    public Map<String, List<String>> getFilter(@RequestBody RequestParams params){
-        return hotelService.filters(params);
+    public CompletableFuture<Map<String, List<String>>> getFilter(@RequestBody RequestParams params){
+        return hotelService.filtersAsync(params);
+    }
+
+    @PostMapping("/search-with-facets")
+    public CompletableFuture<FacetPageResult> searchWithFacets(@RequestBody RequestParams params){
+        return hotelService.searchWithFacetsAsync(params);
     }
     @GetMapping("/suggestion")
-    public List<String> getSuggestions(@RequestParam("key") String prefix){
-        return hotelService.getSuggestions(prefix);
+    public CompletableFuture<List<String>> getSuggestions(@RequestParam("key") String prefix){
+        return hotelService.getSuggestionsAsync(prefix);
     }
 }
@@ -0,0 +1,54 @@
+package cn.itcast.hotel.web;
+
+import cn.itcast.hotel.service.CursorExpiredException;
+import cn.itcast.hotel.service.InvalidCursorException;
+import cn.itcast.hotel.service.SearchRejectedException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 索引库繁忙或不可用时返回503，客户端可以稍后重试，不作为服务端错误(500)。
+ * 无效的翻页游标返回400，过期的游标返回410，客户端需要从第一页重新查询
+ */
+@Slf4j
+@RestControllerAdvice
+public class HotelExceptionHandler {
+
+    @ExceptionHandler(SearchRejectedException.class)
+    public ResponseEntity<Map<String, String>> rejected(SearchRejectedException e) {
+        return unavailable(e.getMessage());
+    }
+
+    /**
+     * 连接失败、超时等，service中包装为RuntimeException时按cause匹配
+     */
+    @ExceptionHandler(IOException.class)
+    public ResponseEntity<Map<String, String>> esUnavailable(IOException e) {
+        log.warn("索引库不可用：{}", e.toString());
+        return unavailable("索引库不可用，请稍后重试");
+    }
+
+    @ExceptionHandler(InvalidCursorException.class)
+    public ResponseEntity<Map<String, String>> invalidCursor(InvalidCursorException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Collections.singletonMap("message", e.getMessage()));
+    }
+
+    @ExceptionHandler(CursorExpiredException.class)
+    public ResponseEntity<Map<String, String>> cursorExpired(CursorExpiredException e) {
+        return ResponseEntity.status(HttpStatus.GONE).body(Collections.singletonMap("message", e.getMessage()));
+    }
+
+    private ResponseEntity<Map<String, String>> unavailable(String message) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(Collections.singletonMap("message", message));
+    }
+}
@@ -0,0 +1,74 @@
+package cn.itcast.hotel;
+
+import cn.itcast.hotel.config.ElasticsearchConfig;
+import cn.itcast.hotel.config.ElasticsearchProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.config.Registry;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class ElasticsearchConfigTest {
+    private EsStubServer es;
+    private SimpleMeterRegistry meterRegistry;
+    private RestHighLevelClient client;
+
+    @Test
+    void clientUsesConfiguredPoolAndExposesMetrics() throws IOException {
+        SearchResponse response = client.search(new SearchRequest("hotel"), RequestOptions.DEFAULT);
+
+        assertEquals(2L, response.getHits().getTotalHits().value);
+        assertEquals(20.0, meterRegistry.get("elasticsearch.client.pool.max").gauge().value());
+        assertEquals(0.0, meterRegistry.get("elasticsearch.client.pool.leased").gauge().value());
+        //请求结束后连接回到连接池
+        assertEquals(1.0, meterRegistry.get("elasticsearch.client.pool.available").gauge().value());
+    }
+
+    @Test
+    void connectionManagerSupportsHttpAndHttps() throws IOException {
+        PoolingNHttpClientConnectionManager connectionManager = ReflectionTestUtils.invokeMethod(
+                new ElasticsearchConfig(), "connectionManager", new ElasticsearchProperties());
+        try {
+            Registry<?> schemes = (Registry<?>) ReflectionTestUtils.getField(connectionManager, "iosessionFactoryRegistry");
+            assertSame(NoopIOSessionStrategy.INSTANCE, schemes.lookup("http"));
+            assertTrue(schemes.lookup("https") instanceof SSLIOSessionStrategy);
+        } finally {
+            connectionManager.shutdown();
+        }
+    }
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws IOException {
+        this.es = new EsStubServer().respond("_search", "/es/search-response.json");
+        this.meterRegistry = new SimpleMeterRegistry();
+        ElasticsearchProperties properties = new ElasticsearchProperties();
+        properties.setHosts(Collections.singletonList("http://" + es.address()));
+        properties.setMaxConnTotal(20);
+        this.client = new ElasticsearchConfig().client(properties, meterRegistry,
+                mock(ObjectProvider.class));
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        this.client.close();
+        this.es.close();
+    }
+}
@@ -0,0 +1,208 @@
+package cn.itcast.hotel;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.util.StreamUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 本地模拟的ES服务，按接口(_search、_bulk等)返回预先准备好的响应，并记录每个接口被调用的次数
+ */
+public class EsStubServer implements Closeable {
+
+    private final HttpServer server;
+    //每个请求一个线程，模拟的延迟不会让其他请求排队
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, String> responses = new ConcurrentHashMap<>();
+    //没有指定时返回200
+    private final Map<String, Integer> statuses = new ConcurrentHashMap<>();
+    //请求体包含指定内容时的响应，优先于responses
+    private final Map<String, Map<String, String>> conditionalResponses = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> counts = new ConcurrentHashMap<>();
+    private final Map<String, String> lastBodies = new ConcurrentHashMap<>();
+    private final Map<String, String> lastQueries = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> bodies = new ConcurrentHashMap<>();
+    private final List<String> endpoints = new CopyOnWriteArrayList<>();
+    private volatile long minLatencyMicros;
+    private volatile long maxLatencyMicros;
+
+    public EsStubServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * 从classpath加载响应
+     * @param endpoint 接口名称，例如_search
+     * @param resource classpath下的json文件
+     */
+    public EsStubServer respond(String endpoint, String resource) throws IOException {
+        try (InputStream in = EsStubServer.class.getResourceAsStream(resource)) {
+            return respondWith(endpoint, StreamUtils.copyToString(in, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * 请求体包含bodyContains时返回classpath下的响应，用于同一个接口的不同请求
+     */
+    public EsStubServer respondIf(String endpoint, String bodyContains, String resource) throws IOException {
+        try (InputStream in = EsStubServer.class.getResourceAsStream(resource)) {
+            conditionalResponses.computeIfAbsent(endpoint, k -> new LinkedHashMap<>())
+                    .put(bodyContains, StreamUtils.copyToString(in, StandardCharsets.UTF_8));
+        }
+        return this;
+    }
+
+    public EsStubServer respondWith(String endpoint, String json) {
+        statuses.remove(endpoint);
+        responses.put(endpoint, json);
+        return this;
+    }
+
+    /**
+     * 返回指定的状态码，用于模拟索引库返回的错误
+     */
+    public EsStubServer respondWith(String endpoint, int status, String json) {
+        respondWith(endpoint, json);
+        statuses.put(endpoint, status);
+        return this;
+    }
+
+    /**
+     * 每个响应前等待的时间，在最小值和最大值之间均匀分布
+     */
+    public EsStubServer latency(long minMicros, long maxMicros) {
+        this.minLatencyMicros = minMicros;
+        this.maxLatencyMicros = Math.max(minMicros, maxMicros);
+        return this;
+    }
+
+    public int count(String endpoint) {
+        AtomicInteger count = counts.get(endpoint);
+        return count == null ? 0 : count.get();
+    }
+
+    public String lastBody(String endpoint) {
+        return lastBodies.get(endpoint);
+    }
+
+    /**
+     * 按顺序返回接口收到的所有请求体
+     */
+    public List<String> bodies(String endpoint) {
+        List<String> list = bodies.get(endpoint);
+        return list == null ? Collections.emptyList() : new ArrayList<>(list);
+    }
+
+    /**
+     * 按到达顺序返回所有请求的接口，用于检查调用顺序
+     */
+    public List<String> endpoints() {
+        return new ArrayList<>(endpoints);
+    }
+
+    /**
+     * 最后一次请求的查询参数，例如request_cache=true&typed_keys=true
+     */
+    public String lastQuery(String endpoint) {
+        return lastQueries.get(endpoint);
+    }
+
+    public RestHighLevelClient client() {
+        return new RestHighLevelClient(RestClient.builder(
+                new HttpHost("127.0.0.1", server.getAddress().getPort())));
+    }
+
+    /**
+     * 服务地址，例如127.0.0.1:9200
+     */
+    public String address() {
+        return "127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String endpoint = endpointOf(exchange.getRequestURI().getPath());
+        counts.computeIfAbsent(endpoint, k -> new AtomicInteger()).incrementAndGet();
+        endpoints.add(endpoint);
+        InputStream requestBody = exchange.getRequestBody();
+        //客户端开启压缩时请求体是gzip
+        if ("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            requestBody = new GZIPInputStream(requestBody);
+        }
+        String body = StreamUtils.copyToString(requestBody, StandardCharsets.UTF_8);
+        //gzip结束后可能还有分块编码的结尾没有读取，读完整个请求才能响应，否则客户端会收到提前的响应
+        StreamUtils.drain(exchange.getRequestBody());
+        lastBodies.put(endpoint, body);
+        bodies.computeIfAbsent(endpoint, k -> new CopyOnWriteArrayList<>()).add(body);
+        String query = exchange.getRequestURI().getRawQuery();
+        lastQueries.put(endpoint, query == null ? "" : query);
+        String response = responses.get(endpoint);
+        for (Map.Entry<String, String> entry : conditionalResponses.getOrDefault(endpoint, Collections.emptyMap()).entrySet()) {
+            if (body.contains(entry.getKey())) {
+                response = entry.getValue();
+                break;
+            }
+        }
+        sleep();
+        byte[] bytes = (response == null ? "{}" : response).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(response == null ? 404 : statuses.getOrDefault(endpoint, 200), bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void sleep() {
+        long micros = maxLatencyMicros > minLatencyMicros
+                ? ThreadLocalRandom.current().nextLong(minLatencyMicros, maxLatencyMicros + 1) : minLatencyMicros;
+        if (micros <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MICROSECONDS.sleep(micros);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //取路径中最后一个以_开头的片段，例如/hotel/_search -> _search
+    private static String endpointOf(String path) {
+        String[] segments = path.split("/");
+        for (int i = segments.length - 1; i >= 0; i--) {
+            if (segments[i].startsWith("_")) {
+                return segments[i];
+            }
+        }
+        return path;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
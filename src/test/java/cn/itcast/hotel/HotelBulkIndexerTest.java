@@ -0,0 +1,188 @@
+package cn.itcast.hotel;
+
+import cn.itcast.hotel.config.BulkProperties;
+import cn.itcast.hotel.constants.MqConstants;
+import cn.itcast.hotel.mq.HotelBulkIndexer;
+import cn.itcast.hotel.service.IHotelService;
+import com.rabbitmq.client.Channel;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.MessagePostProcessor;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HotelBulkIndexerTest {
+    private static final ShardId SHARD = new ShardId("hotel", "_na_", 0);
+
+    private IHotelService hotelService;
+    private RabbitTemplate rabbitTemplate;
+    private Channel channel;
+    private BulkProperties properties;
+    private HotelBulkIndexer indexer;
+
+    @Test
+    void collapsesRepeatedIdsAndAcksAfterBulk() throws Exception {
+        when(hotelService.bulk(anyCollection(), anyCollection())).thenReturn(new BulkResponse(new BulkItemResponse[]{
+                success(0, "2"),
+                new BulkItemResponse(1, DocWriteRequest.OpType.DELETE,
+                        new DeleteResponse(SHARD, "_doc", "1", 1, 1, 1, true))
+        }, 1));
+
+        indexer.add(1L, false, channel, 1);
+        indexer.add(1L, true, channel, 2);
+        indexer.add(2L, false, channel, 3);
+        indexer.flush();
+
+        //id=1最后一次是删除
+        verify(hotelService).bulk(Collections.singletonList(2L), Collections.singletonList(1L));
+        verify(channel).basicAck(1, false);
+        verify(channel).basicAck(2, false);
+        verify(channel).basicAck(3, false);
+    }
+
+    @Test
+    void requeuesRetryableAndDeadLettersOtherFailures() throws Exception {
+        when(hotelService.bulk(anyCollection(), anyCollection())).thenReturn(new BulkResponse(new BulkItemResponse[]{
+                success(0, "1"),
+                failure(1, "2", RestStatus.TOO_MANY_REQUESTS),
+                failure(2, "3", RestStatus.BAD_REQUEST)
+        }, 1));
+
+        indexer.add(1L, false, channel, 1);
+        indexer.add(2L, false, channel, 2);
+        indexer.add(3L, false, channel, 3);
+        indexer.flush();
+
+        verify(channel).basicAck(1, false);
+        verify(channel, timeout(1000)).basicNack(2, false, true);
+        verify(channel, never()).basicAck(2, false);
+        verify(rabbitTemplate).convertAndSend(eq(MqConstants.HOTEL_DL_EXCHANGE), eq(MqConstants.HOTEL_DL_KEY),
+                eq((Object) 3L), any(MessagePostProcessor.class));
+        verify(channel).basicAck(3, false);
+    }
+
+    @Test
+    void acksOnlyWhenAllIndicesSucceed() throws Exception {
+        //重建期间同一个id写入两个索引，其中一个失败
+        when(hotelService.bulk(anyCollection(), anyCollection())).thenReturn(new BulkResponse(new BulkItemResponse[]{
+                success(0, "1"),
+                failure(1, "1", RestStatus.SERVICE_UNAVAILABLE)
+        }, 1));
+
+        indexer.add(1L, false, channel, 1);
+        indexer.flush();
+
+        verify(channel, timeout(1000)).basicNack(1, false, true);
+        verify(channel, never()).basicAck(1, false);
+    }
+
+    @Test
+    void requeuesWholeBatchWhenBulkThrows() throws Exception {
+        when(hotelService.bulk(anyCollection(), anyCollection())).thenThrow(new RuntimeException("es down"));
+
+        indexer.add(1L, false, channel, 1);
+        indexer.add(2L, true, channel, 2);
+        indexer.flush();
+
+        verify(channel, timeout(1000)).basicNack(1, false, true);
+        verify(channel, timeout(1000)).basicNack(2, false, true);
+    }
+
+    @Test
+    void backsOffBeforeRequeueAndDeadLettersAfterMaxAttempts() throws Exception {
+        properties.setRetryBackoffMs(200);
+        properties.setMaxAttempts(2);
+        when(hotelService.bulk(anyCollection(), anyCollection())).thenThrow(new RuntimeException("es down"));
+
+        indexer.add(1L, false, channel, 1);
+        indexer.flush();
+        //等待退避时间后才重新入队
+        verify(channel, after(100).never()).basicNack(1, false, true);
+        verify(channel, timeout(1000)).basicNack(1, false, true);
+
+        //重新投递后再次失败，转入死信队列并确认
+        indexer.add(1L, false, channel, 2);
+        indexer.flush();
+        verify(rabbitTemplate).convertAndSend(eq(MqConstants.HOTEL_DL_EXCHANGE), eq(MqConstants.HOTEL_DL_KEY),
+                eq((Object) 1L), any(MessagePostProcessor.class));
+        verify(channel).basicAck(2, false);
+        verify(channel, never()).basicNack(2, false, true);
+    }
+
+    @Test
+    void flushesWhenMaxActionsReached() throws Exception {
+        properties.setMaxActions(2);
+        properties.setLingerMs(60_000);
+        when(hotelService.bulk(anyCollection(), anyCollection())).thenReturn(new BulkResponse(new BulkItemResponse[]{
+                success(0, "1"), success(1, "2")
+        }, 1));
+
+        indexer.add(1L, false, channel, 1);
+        indexer.add(2L, false, channel, 2);
+
+        verify(hotelService, timeout(1000)).bulk(Arrays.asList(1L, 2L), Collections.emptyList());
+        verify(channel, timeout(1000)).basicAck(2, false);
+    }
+
+    @Test
+    void flushesAfterLinger() throws Exception {
+        properties.setLingerMs(50);
+        when(hotelService.bulk(anyCollection(), anyCollection())).thenReturn(new BulkResponse(new BulkItemResponse[]{
+                success(0, "1")
+        }, 1));
+
+        indexer.add(1L, false, channel, 1);
+
+        verify(channel, timeout(1000)).basicAck(1, false);
+    }
+
+    private static BulkItemResponse success(int itemId, String id) {
+        return new BulkItemResponse(itemId, DocWriteRequest.OpType.INDEX,
+                new IndexResponse(SHARD, "_doc", id, 1, 1, 1, true));
+    }
+
+    private static BulkItemResponse failure(int itemId, String id, RestStatus status) {
+        return new BulkItemResponse(itemId, DocWriteRequest.OpType.INDEX,
+                new BulkItemResponse.Failure("hotel", "_doc", id, new RuntimeException(status.name()), status));
+    }
+
+    @BeforeEach
+    void setUp() {
+        this.hotelService = mock(IHotelService.class);
+        this.rabbitTemplate = mock(RabbitTemplate.class);
+        this.channel = mock(Channel.class);
+        this.properties = new BulkProperties();
+        properties.setRetryBackoffMs(10);
+        this.indexer = new HotelBulkIndexer();
+        ReflectionTestUtils.setField(indexer, "hotelService", hotelService);
+        ReflectionTestUtils.setField(indexer, "bulkProperties", properties);
+        ReflectionTestUtils.setField(indexer, "rabbitTemplate", rabbitTemplate);
+        indexer.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        indexer.stop();
+    }
+}
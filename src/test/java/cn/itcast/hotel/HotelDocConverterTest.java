@@ -0,0 +1,73 @@
+package cn.itcast.hotel;
+
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.service.impl.HotelDocConverter;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class HotelDocConverterTest {
+
+    @Test
+    void sameAsConstructorForBusinessSeparators() {
+        for (String business : Arrays.asList("静安寺地区", "", "天安门/王府井地区", "首都机场/新国展地区/顺义",
+                "/虹桥", "虹桥/", "虹桥//", "a//b", "/", "//", "/a/")) {
+            Hotel hotel = hotel(1L, business);
+            HotelDoc expected = new HotelDoc(hotel);
+
+            HotelDoc actual = HotelDocConverter.convert(hotel);
+
+            assertEquals(expected, actual, business);
+            assertEquals(expected.getSuggestion(), actual.getSuggestion(), business);
+        }
+    }
+
+    @Test
+    void sameAsConstructorForRandomHotels() {
+        Random random = new Random(42);
+        String[] parts = {"国贸", "CBD", "", "三里屯", "工体"};
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder business = new StringBuilder(parts[random.nextInt(parts.length)]);
+            for (int j = random.nextInt(4); j > 0; j--) {
+                business.append('/').append(parts[random.nextInt(parts.length)]);
+            }
+            Hotel hotel = hotel((long) i, business.toString());
+            if (random.nextInt(10) == 0) {
+                hotel.setLatitude(null);
+            }
+
+            assertEquals(new HotelDoc(hotel), HotelDocConverter.convert(hotel), business.toString());
+        }
+    }
+
+    @Test
+    void missingBusinessUsesNameAndAddress() {
+        //构造方法遇到null会抛出异常
+        HotelDoc hotelDoc = HotelDocConverter.convert(hotel(1L, null));
+
+        assertEquals(Arrays.asList("酒店1", "地址1"), hotelDoc.getSuggestion());
+        assertEquals(Collections.singletonList("品牌"), HotelDocConverter.convert(hotel(1L, "/")).getSuggestion());
+    }
+
+    private static Hotel hotel(Long id, String business) {
+        Hotel hotel = new Hotel();
+        hotel.setId(id);
+        hotel.setName("酒店" + id);
+        hotel.setAddress("地址" + id);
+        hotel.setPrice(300);
+        hotel.setScore(44);
+        hotel.setBrand("品牌");
+        hotel.setCity("北京");
+        hotel.setStarName("四钻");
+        hotel.setBusiness(business);
+        hotel.setLatitude("39.914539");
+        hotel.setLongitude("116.413392");
+        hotel.setPic("https://m.tuniucdn.com/fb2/t1/1.jpg");
+        return hotel;
+    }
+}
@@ -0,0 +1,68 @@
+package cn.itcast.hotel;
+
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.service.impl.HotelDocSerializer;
+import com.alibaba.fastjson.JSON;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+public class HotelDocSerializerTest {
+
+    @Test
+    void writesSameJsonAsFastjson() {
+        HotelDoc hotelDoc = new HotelDoc(hotel(60223L, "上海希尔顿酒店", "静安寺地区/南京西路"));
+        hotelDoc.setAD(true);
+
+        String json = toString(HotelDocSerializer.toSource(hotelDoc));
+
+        assertEquals(JSON.toJSONString(hotelDoc), json);
+        //下一个文档复用同一个缓冲区，已经返回的内容不受影响
+        HotelDoc other = new HotelDoc(hotel(2L, "如家", "国贸"));
+        BytesReference first = HotelDocSerializer.toSource(hotelDoc);
+        assertEquals(JSON.toJSONString(other), toString(HotelDocSerializer.toSource(other)));
+        assertEquals(json, toString(first));
+    }
+
+    @Test
+    void skipsNullsAndDistance() {
+        HotelDoc hotelDoc = new HotelDoc();
+        hotelDoc.setId(1L);
+        hotelDoc.setName("名称含\"引号\"\\和\n换行");
+        hotelDoc.setSuggestion(Arrays.asList("a", null, "b"));
+        hotelDoc.setDistance(1.5);
+
+        String json = toString(HotelDocSerializer.toSource(hotelDoc));
+
+        assertFalse(json.contains("distance"));
+        hotelDoc.setDistance(null);
+        assertEquals(JSON.parseObject(JSON.toJSONString(hotelDoc)), JSON.parseObject(json));
+    }
+
+    private static String toString(BytesReference bytes) {
+        return new String(BytesReference.toBytes(bytes), StandardCharsets.UTF_8);
+    }
+
+    private static Hotel hotel(Long id, String name, String business) {
+        Hotel hotel = new Hotel();
+        hotel.setId(id);
+        hotel.setName(name);
+        hotel.setAddress("地址" + id);
+        hotel.setPrice(688);
+        hotel.setScore(45);
+        hotel.setBrand("希尔顿");
+        hotel.setCity("上海");
+        hotel.setStarName("五星级");
+        hotel.setBusiness(business);
+        hotel.setLatitude("31.219306");
+        hotel.setLongitude("121.445427");
+        hotel.setPic("https://m.tuniucdn.com/fb3/s1/2n9c/1.jpg");
+        return hotel;
+    }
+}
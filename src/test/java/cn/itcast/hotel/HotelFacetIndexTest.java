@@ -0,0 +1,227 @@
+package cn.itcast.hotel;
+
+import cn.itcast.hotel.config.FacetProperties;
+import cn.itcast.hotel.config.SearchCacheProperties;
+import cn.itcast.hotel.config.SearchProperties;
+import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelChangedEvent;
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.pojo.RequestParams;
+import cn.itcast.hotel.service.impl.HotelFacetIndex;
+import cn.itcast.hotel.service.impl.HotelSearchCache;
+import cn.itcast.hotel.service.impl.HotelService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static cn.itcast.hotel.HotelServiceFixtures.esMetrics;
+import static cn.itcast.hotel.HotelServiceFixtures.newHotelService;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HotelFacetIndexTest {
+    private EsStubServer es;
+    private RestHighLevelClient client;
+    private HotelMapper hotelMapper;
+    private HotelFacetIndex facetIndex;
+    private HotelService hotelService;
+    private SimpleMeterRegistry registry;
+
+    @Test
+    void servesUnfilteredAndSingleFilterFacets() {
+        when(hotelMapper.selectList(any())).thenReturn(Arrays.asList(
+                hotel(1L, "上海", "如家", "二钻"), hotel(2L, "上海", "如家", "二钻"),
+                hotel(3L, "北京", "希尔顿", "五星级"), hotel(4L, "北京", "汉庭", null)));
+        facetIndex.load();
+
+        Map<String, List<String>> all = facetIndex.filters(new RequestParams());
+        //按数量倒序，数量相同按取值排序，没有星级的酒店不计入
+        assertEquals(Arrays.asList("上海", "北京"), all.get("城市"));
+        assertEquals(Arrays.asList("如家", "希尔顿", "汉庭"), all.get("品牌"));
+        assertEquals(Arrays.asList("二钻", "五星级"), all.get("星级"));
+
+        RequestParams params = new RequestParams();
+        params.setCity("北京");
+        Map<String, List<String>> beijing = facetIndex.filters(params);
+        assertEquals(Collections.singletonList("北京"), beijing.get("城市"));
+        assertEquals(Arrays.asList("希尔顿", "汉庭"), beijing.get("品牌"));
+        assertEquals(Collections.singletonList("五星级"), beijing.get("星级"));
+
+        params.setCity("深圳");
+        assertTrue(facetIndex.filters(params).get("品牌").isEmpty());
+
+        //多个条件、关键字、价格需要查询索引库
+        params.setCity("北京");
+        params.setBrand("汉庭");
+        assertNull(facetIndex.filters(params));
+        RequestParams keyword = new RequestParams();
+        keyword.setKey("如家");
+        assertNull(facetIndex.filters(keyword));
+        RequestParams price = new RequestParams();
+        price.setMinPrice(100);
+        price.setMaxPrice(300);
+        assertNull(facetIndex.filters(price));
+    }
+
+    @Test
+    void updatesFromEvents() {
+        when(hotelMapper.selectList(any())).thenReturn(Arrays.asList(
+                hotel(1L, "上海", "如家", "二钻"), hotel(2L, "北京", "希尔顿", "五星级")));
+        facetIndex.load();
+
+        //1号酒店改到深圳，2号酒店删除
+        facetIndex.onHotelChanged(new HotelChangedEvent(
+                Collections.singletonList(new HotelDoc(hotel(1L, "深圳", "如家", "二钻"))),
+                Collections.singletonList(2L)));
+
+        Map<String, List<String>> all = facetIndex.filters(new RequestParams());
+        assertEquals(Collections.singletonList("深圳"), all.get("城市"));
+        assertEquals(Collections.singletonList("如家"), all.get("品牌"));
+        assertEquals(Collections.singletonList("二钻"), all.get("星级"));
+    }
+
+    @Test
+    void skipsSnapshotWhenCombosAreUnchanged() {
+        when(hotelMapper.selectList(any())).thenReturn(Collections.singletonList(hotel(1L, "上海", "如家", "二钻")));
+        facetIndex.load();
+        Object snapshot = ReflectionTestUtils.getField(facetIndex, "snapshot");
+
+        //只改了价格
+        HotelDoc priceChanged = new HotelDoc(hotel(1L, "上海", "如家", "二钻"));
+        priceChanged.setPrice(399);
+        facetIndex.onHotelChanged(new HotelChangedEvent(Collections.singletonList(priceChanged),
+                Collections.emptyList()));
+        //删除不存在的酒店
+        facetIndex.onHotelChanged(new HotelChangedEvent(Collections.emptyList(), Collections.singletonList(9L)));
+
+        assertSame(snapshot, ReflectionTestUtils.getField(facetIndex, "snapshot"));
+    }
+
+    @Test
+    void eventsDuringLoadWinOverRowsReadBeforeThem() {
+        //读出数据库的一批数据后、加入计数前收到1号酒店修改和2号酒店删除的事件
+        when(hotelMapper.selectList(any())).thenAnswer(invocation -> {
+            facetIndex.onHotelChanged(new HotelChangedEvent(
+                    Collections.singletonList(new HotelDoc(hotel(1L, "深圳", "如家", "二钻"))),
+                    Collections.singletonList(2L)));
+            return Arrays.asList(hotel(1L, "上海", "如家", "二钻"), hotel(2L, "北京", "希尔顿", "五星级"));
+        });
+        facetIndex.load();
+
+        Map<String, List<String>> all = facetIndex.filters(new RequestParams());
+        assertEquals(Collections.singletonList("深圳"), all.get("城市"));
+        assertEquals(Collections.singletonList("如家"), all.get("品牌"));
+
+        //加载完成后不再跳过
+        when(hotelMapper.selectList(any())).thenReturn(Collections.singletonList(hotel(1L, "上海", "如家", "二钻")));
+        facetIndex.load();
+        assertEquals(Collections.singletonList("上海"), facetIndex.filters(new RequestParams()).get("城市"));
+    }
+
+    @Test
+    void reloadsAfterTwoMismatchedReconciles() throws IOException {
+        es.respond("_search", "/es/facet-reconcile-response.json");
+        when(hotelMapper.selectList(any())).thenReturn(Arrays.asList(
+                hotel(1L, "上海", "如家", "二钻"), hotel(2L, "上海", "如家", "二钻"),
+                hotel(3L, "北京", "希尔顿", "五星级")));
+        facetIndex.load();
+
+        facetIndex.reconcile();
+        facetIndex.reconcile();
+        verify(hotelMapper, times(1)).selectList(any());
+
+        //数据库中删除了酒店但没有收到消息
+        when(hotelMapper.selectList(any())).thenReturn(Arrays.asList(
+                hotel(1L, "上海", "如家", "二钻"), hotel(2L, "上海", "如家", "二钻")));
+        facetIndex.onHotelChanged(new HotelChangedEvent(Collections.emptyList(), Collections.singletonList(3L)));
+        facetIndex.reconcile();
+        verify(hotelMapper, times(1)).selectList(any());
+        facetIndex.reconcile();
+        verify(hotelMapper, times(2)).selectList(any());
+        assertTrue(facetIndex.isReady());
+        assertEquals(4, es.count("_search"));
+        assertEquals(4, registry.get("hotel.es.round.trip").tag("endpoint", "reconcile").timer().count());
+        //重新加载时清除不再使用的取值
+        assertEquals(Arrays.asList("", "上海"), dictionaryValues(0));
+        assertEquals(Arrays.asList("", "如家"), dictionaryValues(1));
+    }
+
+    @Test
+    void serviceFallsBackToElasticsearch() throws IOException {
+        es.respond("_search", "/es/search-facets-response.json");
+        when(hotelMapper.selectList(any())).thenReturn(Collections.singletonList(hotel(1L, "上海", "如家", "二钻")));
+        facetIndex.load();
+
+        assertEquals(Collections.singletonList("如家"), hotelService.filters(new RequestParams()).get("品牌"));
+        assertEquals(0, es.count("_search"));
+
+        RequestParams params = new RequestParams();
+        params.setKey("希尔顿");
+        assertEquals(Collections.singletonList("希尔顿"), hotelService.filters(params).get("品牌"));
+        assertEquals(1, es.count("_search"));
+        assertFalse(es.lastBody("_search").contains("function_score"));
+    }
+
+    private List<?> dictionaryValues(int field) {
+        Object[] dictionaries = (Object[]) ReflectionTestUtils.getField(facetIndex, "dictionaries");
+        return (List<?>) ReflectionTestUtils.getField(dictionaries[field], "values");
+    }
+
+    private static Hotel hotel(Long id, String city, String brand, String starName) {
+        Hotel hotel = new Hotel();
+        hotel.setId(id);
+        hotel.setName(brand + "酒店");
+        hotel.setCity(city);
+        hotel.setBrand(brand);
+        hotel.setStarName(starName);
+        hotel.setBusiness("");
+        return hotel;
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.es = new EsStubServer();
+        this.client = es.client();
+        this.hotelMapper = mock(HotelMapper.class);
+        FacetProperties properties = new FacetProperties();
+        properties.setLocalEnabled(true);
+        this.facetIndex = new HotelFacetIndex();
+        ReflectionTestUtils.setField(facetIndex, "hotelMapper", hotelMapper);
+        ReflectionTestUtils.setField(facetIndex, "facetProperties", properties);
+        ReflectionTestUtils.setField(facetIndex, "client", client);
+        this.registry = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(facetIndex, "esMetrics", esMetrics(registry, new SearchProperties()));
+        this.hotelService = newHotelService(client);
+        ReflectionTestUtils.setField(hotelService, "facetIndex", facetIndex);
+        //不使用结果缓存，每次都能看到是否查询了索引库
+        SearchCacheProperties cacheProperties = new SearchCacheProperties();
+        cacheProperties.setEnabled(false);
+        HotelSearchCache searchCache = new HotelSearchCache();
+        ReflectionTestUtils.setField(searchCache, "cacheProperties", cacheProperties);
+        ReflectionTestUtils.setField(hotelService, "searchCache", searchCache);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        this.client.close();
+        this.es.close();
+    }
+}
@@ -0,0 +1,180 @@
+package cn.itcast.hotel;
+
+import cn.itcast.hotel.config.ElasticsearchProperties;
+import cn.itcast.hotel.config.IndexProperties;
+import cn.itcast.hotel.pojo.RebuildStatus;
+import cn.itcast.hotel.pojo.ReindexResult;
+import cn.itcast.hotel.service.IHotelReindexService;
+import cn.itcast.hotel.service.impl.HotelIndexService;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import static cn.itcast.hotel.constants.HotelConstants.MAPPING_TEMPLATE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HotelIndexServiceTest {
+    private static final String ACKNOWLEDGED = "{\"acknowledged\":true}";
+    private static final String SHARDS = "{\"_shards\":{\"total\":1,\"successful\":1,\"failed\":0}}";
+
+    private EsStubServer es;
+    private RestHighLevelClient client;
+    private IHotelReindexService reindexService;
+    private HotelIndexService indexService;
+
+    @Test
+    void rebuildsIntoNextVersionAndSwapsAlias() {
+        es.respondWith("/hotel*", "{\"hotel_v1\":{\"aliases\":{\"hotel\":{}},\"mappings\":{},"
+                + "\"settings\":{\"index\":{\"number_of_shards\":\"1\"}}}}");
+        AtomicReference<List<String>> duringRebuild = new AtomicReference<>();
+        when(reindexService.reindex(eq("hotel_v2"), eq(true))).thenAnswer(invocation -> {
+            duringRebuild.set(indexService.writeIndices());
+            //导入期间删除的酒店
+            indexService.onDeleted(7L);
+            return new ReindexResult("hotel_v2", 10L, 0L, 100L);
+        });
+
+        indexService.rebuild();
+        RebuildStatus status = awaitRebuild();
+
+        assertEquals(RebuildStatus.SUCCEEDED, status.getState());
+        assertEquals("hotel_v2", status.getIndex());
+        assertEquals("hotel_v2", status.getResult().getIndex());
+        assertEquals(Arrays.asList("hotel", "hotel_v2"), duringRebuild.get());
+        assertEquals(Collections.singletonList("hotel"), indexService.writeIndices());
+        //导入时关闭刷新和副本
+        String create = es.lastBody("/hotel_v2");
+        assertTrue(create.contains("\"refresh_interval\":\"-1\""));
+        //模板中的索引排序不能丢失
+        assertTrue(create.contains("\"sort\":{\"field\":\"price\",\"order\":\"asc\"}"));
+        assertTrue(create.contains("\"number_of_replicas\":\"0\""));
+        //自动补全和拼音搜索依赖的字段和分词器
+        JSONObject createBody = JSON.parseObject(create);
+        assertEquals("completion", createBody.getJSONObject("mappings").getJSONObject("properties")
+                .getJSONObject("suggestion").getString("type"));
+        assertEquals("pinyin", createBody.getJSONObject("settings").getJSONObject("analysis")
+                .getJSONObject("filter").getJSONObject("py").getString("type"));
+        assertTrue(es.lastBody("_bulk").contains("{\"delete\":{\"_index\":\"hotel_v2\",\"_id\":\"7\"}}"));
+        assertTrue(es.lastBody("_settings").contains("\"refresh_interval\":\"1s\""));
+        assertEquals(1, es.count("_forcemerge"));
+        //没有副本时合并段，之后再恢复副本和刷新
+        List<String> endpoints = es.endpoints();
+        assertTrue(endpoints.indexOf("_forcemerge") < endpoints.lastIndexOf("_settings"));
+        assertTrue(endpoints.lastIndexOf("_settings") < endpoints.indexOf("_refresh"));
+        String aliases = es.lastBody("_aliases");
+        assertTrue(aliases.contains("\"add\":{\"indices\":[\"hotel_v2\"],\"aliases\":[\"hotel\"]}"));
+        assertTrue(aliases.contains("\"remove\":{\"indices\":[\"hotel_v1\"],\"aliases\":[\"hotel\"]}"));
+    }
+
+    @Test
+    void mappingTemplateDefinesEveryQueriedField() {
+        JSONObject template = JSON.parseObject(MAPPING_TEMPLATE);
+        JSONObject properties = template.getJSONObject("mappings").getJSONObject("properties");
+        assertEquals("completion", properties.getJSONObject("suggestion").getString("type"));
+        assertEquals("completion_analyzer", properties.getJSONObject("suggestion").getString("analyzer"));
+        assertEquals("text_anlyzer", properties.getJSONObject("name").getString("analyzer"));
+        assertEquals("text_anlyzer", properties.getJSONObject("all").getString("analyzer"));
+        JSONObject analysis = template.getJSONObject("settings").getJSONObject("analysis");
+        assertEquals("pinyin", analysis.getJSONObject("filter").getJSONObject("py").getString("type"));
+        assertTrue(analysis.getJSONObject("analyzer").containsKey("completion_analyzer"));
+    }
+
+    @Test
+    void replacesLegacyConcreteIndex() {
+        es.respondWith("/hotel*", "{\"hotel\":{\"aliases\":{},\"mappings\":{},"
+                + "\"settings\":{\"index\":{\"number_of_shards\":\"1\"}}}}");
+        when(reindexService.reindex(eq("hotel_v1"), eq(true))).thenReturn(new ReindexResult("hotel_v1", 1L, 0L, 1L));
+
+        indexService.rebuild();
+        assertEquals(RebuildStatus.SUCCEEDED, awaitRebuild().getState());
+
+        String aliases = es.lastBody("_aliases");
+        assertTrue(aliases.contains("\"add\":{\"indices\":[\"hotel_v1\"],\"aliases\":[\"hotel\"]}"));
+        assertTrue(aliases.contains("\"remove_index\":{\"indices\":[\"hotel\"]}"));
+        assertEquals(0, es.count("_bulk"));
+    }
+
+    @Test
+    void runsInBackgroundAndReportsFailure() throws Exception {
+        es.respondWith("/hotel*", "{\"hotel_v1\":{\"aliases\":{\"hotel\":{}},\"mappings\":{},"
+                + "\"settings\":{\"index\":{\"number_of_shards\":\"1\"}}}}");
+        CountDownLatch release = new CountDownLatch(1);
+        when(reindexService.reindex(eq("hotel_v2"), eq(true))).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            throw new IllegalStateException("数据库不可用");
+        });
+
+        RebuildStatus started = indexService.rebuild();
+        assertEquals(RebuildStatus.RUNNING, started.getState());
+        //执行中再次调用返回同一个任务
+        assertEquals(started.getTaskId(), indexService.rebuild().getTaskId());
+        release.countDown();
+
+        RebuildStatus status = awaitRebuild();
+        assertEquals(started.getTaskId(), status.getTaskId());
+        assertEquals(RebuildStatus.FAILED, status.getState());
+        assertTrue(status.getError().contains("数据库不可用"));
+        //失败时删除创建的新索引：创建和删除各一次
+        assertEquals(2, es.count("/hotel_v2"));
+        assertEquals(0, es.count("_aliases"));
+        //失败后可以重新开始
+        assertNotEquals(started.getTaskId(), indexService.rebuild().getTaskId());
+        awaitRebuild();
+    }
+
+    private RebuildStatus awaitRebuild() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        RebuildStatus status = indexService.getRebuildStatus();
+        while (RebuildStatus.RUNNING.equals(status.getState())) {
+            assertTrue(System.nanoTime() < deadline, "等待重建超时");
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            status = indexService.getRebuildStatus();
+        }
+        return status;
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.es = new EsStubServer()
+                .respondWith("/hotel_v1", "{\"acknowledged\":true,\"shards_acknowledged\":true,\"index\":\"hotel_v1\"}")
+                .respondWith("/hotel_v2", "{\"acknowledged\":true,\"shards_acknowledged\":true,\"index\":\"hotel_v2\"}")
+                .respondWith("_settings", ACKNOWLEDGED)
+                .respondWith("_aliases", ACKNOWLEDGED)
+                .respondWith("_refresh", SHARDS)
+                .respondWith("_forcemerge", SHARDS)
+                .respond("_bulk", "/es/bulk-response.json");
+        this.client = es.client();
+        this.reindexService = mock(IHotelReindexService.class);
+        this.indexService = new HotelIndexService();
+        ReflectionTestUtils.setField(indexService, "client", client);
+        ReflectionTestUtils.setField(indexService, "reindexService", reindexService);
+        ReflectionTestUtils.setField(indexService, "indexProperties", new IndexProperties());
+        ReflectionTestUtils.setField(indexService, "elasticsearchProperties", new ElasticsearchProperties());
+        indexService.init();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        this.indexService.destroy();
+        this.client.close();
+        this.es.close();
+    }
+}
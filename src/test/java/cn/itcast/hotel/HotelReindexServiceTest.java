@@ -0,0 +1,96 @@
+package cn.itcast.hotel;
+
+import cn.itcast.hotel.config.ReindexProperties;
+import cn.itcast.hotel.config.SearchProperties;
+import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.ReindexResult;
+import cn.itcast.hotel.service.impl.HotelReindexService;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static cn.itcast.hotel.HotelServiceFixtures.esMetrics;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HotelReindexServiceTest {
+    private EsStubServer es;
+    private RestHighLevelClient client;
+    private HotelMapper hotelMapper;
+    private ReindexProperties properties;
+    private SimpleMeterRegistry registry;
+    private HotelReindexService reindexService;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void streamsRowsByIdAndSendsOneBulkPerBatch() {
+        properties.setBatchSize(2);
+        properties.setConcurrency(2);
+        when(hotelMapper.selectList(any()))
+                .thenReturn(Arrays.asList(hotel(1L), hotel(2L)))
+                .thenReturn(Arrays.asList(hotel(3L), hotel(4L)))
+                .thenReturn(Collections.singletonList(hotel(5L)));
+
+        ReindexResult result = reindexService.reindex("hotel_v2");
+
+        assertEquals(5L, result.getTotal());
+        assertEquals(0L, result.getFailed());
+        assertEquals(3, es.count("_bulk"));
+        //最后一批不满，不再继续查询
+        ArgumentCaptor<QueryWrapper<Hotel>> captor = ArgumentCaptor.forClass(QueryWrapper.class);
+        verify(hotelMapper, times(3)).selectList(captor.capture());
+        QueryWrapper<Hotel> last = captor.getAllValues().get(2);
+        assertTrue(last.getCustomSqlSegment().contains("ORDER BY id ASC limit 2"));
+        assertEquals(4L, last.getParamNameValuePairs().values().iterator().next());
+        assertTrue(es.lastBody("_bulk").contains("\"_index\":\"hotel_v2\""));
+        //与MQ写入的bulk分开统计
+        assertEquals(3, registry.get("hotel.es.round.trip").tag("endpoint", "reindex").timer().count());
+    }
+
+    private static Hotel hotel(Long id) {
+        Hotel hotel = new Hotel();
+        hotel.setId(id);
+        hotel.setName("如家酒店" + id);
+        hotel.setAddress("地址" + id);
+        hotel.setBrand("如家");
+        hotel.setBusiness("静安寺地区");
+        hotel.setLatitude("31.2");
+        hotel.setLongitude("121.4");
+        return hotel;
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.es = new EsStubServer().respond("_bulk", "/es/bulk-response.json");
+        this.client = es.client();
+        this.hotelMapper = mock(HotelMapper.class);
+        this.properties = new ReindexProperties();
+        this.reindexService = new HotelReindexService();
+        this.registry = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(reindexService, "client", client);
+        ReflectionTestUtils.setField(reindexService, "esMetrics", esMetrics(registry, new SearchProperties()));
+        ReflectionTestUtils.setField(reindexService, "hotelMapper", hotelMapper);
+        ReflectionTestUtils.setField(reindexService, "reindexProperties", properties);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        this.client.close();
+        this.es.close();
+    }
+}
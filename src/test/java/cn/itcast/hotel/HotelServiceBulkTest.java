@@ -0,0 +1,151 @@
+package cn.itcast.hotel;
+
+import cn.itcast.hotel.config.BulkProperties;
+import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelChangedEvent;
+import cn.itcast.hotel.service.IHotelIndexService;
+import cn.itcast.hotel.service.impl.HotelService;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static cn.itcast.hotel.HotelServiceFixtures.newHotelService;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class HotelServiceBulkTest {
+    private EsStubServer es;
+    private RestHighLevelClient client;
+    private HotelMapper hotelMapper;
+    private BulkProperties properties;
+    private IHotelIndexService indexService;
+    private ApplicationEventPublisher eventPublisher;
+    private HotelService hotelService;
+
+    @Test
+    void loadsHotelsInBoundedBatches() {
+        properties.setDbBatchSize(2);
+        when(hotelMapper.selectBatchIds(anyCollection()))
+                .thenReturn(Arrays.asList(hotel(1L), hotel(2L)))
+                .thenReturn(Collections.emptyList());
+
+        BulkResponse response = hotelService.bulk(Arrays.asList(1L, 2L, 4L), Collections.singletonList(3L));
+
+        //3个id分两次IN查询，只发一次bulk
+        verify(hotelMapper, times(2)).selectBatchIds(anyCollection());
+        verify(hotelMapper).selectBatchIds(Arrays.asList(1L, 2L));
+        assertEquals(1, es.count("_bulk"));
+        assertEquals(3, response.getItems().length);
+        String body = es.lastBody("_bulk");
+        //数据库中不存在的4号酒店同步删除
+        assertTrue(body.contains("{\"delete\":{\"_index\":\"hotel\",\"_id\":\"4\"}}"));
+        assertTrue(body.contains("{\"delete\":{\"_index\":\"hotel\",\"_id\":\"3\"}}"));
+        //写入成功后发布变更事件
+        ArgumentCaptor<HotelChangedEvent> captor = ArgumentCaptor.forClass(HotelChangedEvent.class);
+        verify(eventPublisher).publishEvent(captor.capture());
+        assertEquals(2, captor.getValue().getUpserted().size());
+        assertEquals(Arrays.asList(4L, 3L), captor.getValue().getDeleted());
+    }
+
+    @Test
+    void splitsBulkByBytes() {
+        properties.setMaxBytes(1);
+        when(hotelMapper.selectBatchIds(anyCollection())).thenReturn(Arrays.asList(hotel(1L), hotel(2L)));
+
+        BulkResponse response = hotelService.bulk(Arrays.asList(1L, 2L), Collections.emptyList());
+
+        assertEquals(2, es.count("_bulk"));
+        assertEquals(6, response.getItems().length);
+    }
+
+    @Test
+    void splitsDeleteOnlyBulkByBytes() {
+        properties.setMaxBytes(1);
+
+        hotelService.bulk(Collections.emptyList(), Arrays.asList(3L, 4L));
+
+        assertEquals(2, es.count("_bulk"));
+    }
+
+    @Test
+    void recordsRebuildChangesOnlyAfterTheyAreWritten() {
+        es.respondWith("_bulk", "{\"took\":1,\"errors\":true,\"items\":["
+                + "{\"index\":{\"_index\":\"hotel\",\"_type\":\"_doc\",\"_id\":\"1\",\"_version\":1,"
+                + "\"result\":\"created\",\"_shards\":{\"total\":2,\"successful\":1,\"failed\":0},"
+                + "\"_seq_no\":0,\"_primary_term\":1,\"status\":201}},"
+                + "{\"delete\":{\"_index\":\"hotel\",\"_type\":\"_doc\",\"_id\":\"3\",\"status\":429,"
+                + "\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}}]}");
+        when(hotelMapper.selectBatchIds(anyCollection())).thenReturn(Collections.singletonList(hotel(1L)));
+
+        hotelService.bulk(Collections.singletonList(1L), Collections.singletonList(3L));
+
+        //删除失败会重试，重试成功后再记录
+        verify(indexService).onUpserted(1L);
+        verify(indexService, never()).onDeleted(3L);
+    }
+
+    @Test
+    void writesToBothIndicesDuringRebuild() {
+        when(indexService.writeIndices()).thenReturn(Arrays.asList("hotel", "hotel_v2"));
+        when(hotelMapper.selectBatchIds(anyCollection())).thenReturn(Collections.singletonList(hotel(1L)));
+
+        hotelService.bulk(Collections.singletonList(1L), Collections.singletonList(3L));
+
+        String body = es.lastBody("_bulk");
+        assertTrue(body.contains("{\"index\":{\"_index\":\"hotel\",\"_id\":\"1\"}}"));
+        assertTrue(body.contains("{\"index\":{\"_index\":\"hotel_v2\",\"_id\":\"1\"}}"));
+        assertTrue(body.contains("{\"delete\":{\"_index\":\"hotel_v2\",\"_id\":\"3\"}}"));
+        verify(indexService).onUpserted(1L);
+        verify(indexService).onDeleted(3L);
+    }
+
+    private static Hotel hotel(Long id) {
+        Hotel hotel = new Hotel();
+        hotel.setId(id);
+        hotel.setName("如家酒店" + id);
+        hotel.setAddress("地址" + id);
+        hotel.setBrand("如家");
+        hotel.setBusiness("静安寺地区");
+        hotel.setLatitude("31.2");
+        hotel.setLongitude("121.4");
+        return hotel;
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.es = new EsStubServer().respond("_bulk", "/es/bulk-response.json");
+        this.client = es.client();
+        this.hotelMapper = mock(HotelMapper.class);
+        this.properties = new BulkProperties();
+        this.hotelService = newHotelService(client);
+        ReflectionTestUtils.setField(hotelService, "baseMapper", hotelMapper);
+        ReflectionTestUtils.setField(hotelService, "bulkProperties", properties);
+        this.indexService = mock(IHotelIndexService.class);
+        when(indexService.writeIndices()).thenReturn(Collections.singletonList("hotel"));
+        ReflectionTestUtils.setField(hotelService, "indexService", indexService);
+        this.eventPublisher = mock(ApplicationEventPublisher.class);
+        ReflectionTestUtils.setField(hotelService, "eventPublisher", eventPublisher);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        this.client.close();
+        this.es.close();
+    }
+}
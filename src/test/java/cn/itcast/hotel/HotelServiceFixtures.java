@@ -0,0 +1,54 @@
+package cn.itcast.hotel;
+
+import cn.itcast.hotel.config.LimitProperties;
+import cn.itcast.hotel.config.SearchProperties;
+import cn.itcast.hotel.service.impl.EsCallMetrics;
+import cn.itcast.hotel.service.impl.HotelService;
+import cn.itcast.hotel.service.impl.SearchCoalescer;
+import cn.itcast.hotel.service.impl.SearchLimiter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 测试和基准测试共用的HotelService，不启动Spring，依赖的组件使用默认配置，
+ * 需要其他配置时再用ReflectionTestUtils替换对应的字段
+ */
+public final class HotelServiceFixtures {
+
+    private HotelServiceFixtures() {
+    }
+
+    public static HotelService newHotelService(RestHighLevelClient client) {
+        HotelService hotelService = new HotelService();
+        ReflectionTestUtils.setField(hotelService, "client", client);
+        ReflectionTestUtils.setField(hotelService, "esMetrics", esMetrics(new SimpleMeterRegistry(), new SearchProperties()));
+        ReflectionTestUtils.setField(hotelService, "searchLimiter", searchLimiter(new LimitProperties()));
+        ReflectionTestUtils.setField(hotelService, "coalescer", coalescer(new SearchProperties()));
+        return hotelService;
+    }
+
+    public static EsCallMetrics esMetrics(MeterRegistry meterRegistry, SearchProperties searchProperties) {
+        EsCallMetrics esMetrics = new EsCallMetrics();
+        ReflectionTestUtils.setField(esMetrics, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(esMetrics, "searchProperties", searchProperties);
+        return esMetrics;
+    }
+
+    public static SearchLimiter searchLimiter(LimitProperties limitProperties) {
+        SearchLimiter searchLimiter = new SearchLimiter();
+        ReflectionTestUtils.setField(searchLimiter, "limitProperties", limitProperties);
+        ReflectionTestUtils.setField(searchLimiter, "meterRegistry", new SimpleMeterRegistry());
+        searchLimiter.init();
+        return searchLimiter;
+    }
+
+    public static SearchCoalescer coalescer(SearchProperties searchProperties) {
+        SearchCoalescer coalescer = new SearchCoalescer();
+        ReflectionTestUtils.setField(coalescer, "searchProperties", searchProperties);
+        ReflectionTestUtils.setField(coalescer, "meterRegistry", new SimpleMeterRegistry());
+        coalescer.init();
+        return coalescer;
+    }
+}
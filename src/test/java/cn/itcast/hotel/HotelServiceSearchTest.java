@@ -0,0 +1,621 @@
+package cn.itcast.hotel;
+
+import cn.itcast.hotel.config.LimitProperties;
+import cn.itcast.hotel.config.SearchCacheProperties;
+import cn.itcast.hotel.config.SearchProperties;
+import cn.itcast.hotel.pojo.FacetPageResult;
+import cn.itcast.hotel.pojo.HotelChangedEvent;
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.pojo.HotelListDoc;
+import cn.itcast.hotel.pojo.PageResult;
+import cn.itcast.hotel.pojo.RequestParams;
+import cn.itcast.hotel.service.CursorExpiredException;
+import cn.itcast.hotel.service.InvalidCursorException;
+import cn.itcast.hotel.service.SearchRejectedException;
+import cn.itcast.hotel.service.impl.HotelFacetIndex;
+import cn.itcast.hotel.service.impl.HotelSearchCache;
+import cn.itcast.hotel.service.impl.HotelService;
+import cn.itcast.hotel.service.impl.HotelSuggestionIndex;
+import cn.itcast.hotel.service.impl.SearchLimiter;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.BeanUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.StreamUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static cn.itcast.hotel.HotelServiceFixtures.esMetrics;
+import static cn.itcast.hotel.HotelServiceFixtures.newHotelService;
+import static cn.itcast.hotel.HotelServiceFixtures.searchLimiter;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.FILTERS;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.LIST;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HotelServiceSearchTest {
+    private EsStubServer es;
+    private RestHighLevelClient client;
+    private HotelService hotelService;
+    private HotelSearchCache searchCache;
+
+    @Test
+    void searchSendsOneRequest() {
+        RequestParams params = new RequestParams();
+        params.setKey("希尔顿");
+        params.setPage(1);
+        params.setSize(5);
+
+        PageResult result = hotelService.search(params);
+
+        assertEquals(1, es.count("_search"));
+        assertEquals(2L, result.getTotal());
+        assertEquals(2, result.getHotels().size());
+        assertEquals("上海希尔顿酒店", result.getHotels().get(0).getName());
+    }
+
+    @Test
+    void searchWithLocationKeepsDistance() {
+        RequestParams params = new RequestParams();
+        params.setPage(2);
+        params.setSize(5);
+        params.setLocation("31.21, 121.5");
+
+        PageResult result = hotelService.search(params);
+
+        assertEquals(1, es.count("_search"));
+        assertEquals(1.2345, result.getHotels().get(0).getDistance());
+        String body = es.lastBody("_search");
+        assertTrue(body.contains("\"from\":5"));
+        assertTrue(body.contains("_geo_distance"));
+    }
+
+    @Test
+    void searchWithFacetsSendsOneRequest() throws IOException {
+        es.respond("_search", "/es/search-facets-response.json");
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(5);
+
+        FacetPageResult result = hotelService.searchWithFacets(params);
+
+        assertEquals(1, es.count("_search"));
+        assertEquals(2, result.getHotels().size());
+        assertEquals(Collections.singletonList("希尔顿"), result.getFilters().get("品牌"));
+        assertEquals(Arrays.asList("五星级", "五钻"), result.getFilters().get("星级"));
+        assertTrue(es.lastBody("_search").contains("\"aggregations\""));
+    }
+
+    @Test
+    void filtersUseFilterContextAndRequestCache() throws IOException {
+        es.respond("_search", "/es/search-facets-response.json");
+        RequestParams params = new RequestParams();
+        params.setKey("希尔顿");
+        params.setCity("上海");
+
+        Map<String, List<String>> filters = hotelService.filters(params);
+
+        assertEquals(Collections.singletonList("希尔顿"), filters.get("品牌"));
+        String body = es.lastBody("_search");
+        assertFalse(body.contains("function_score"));
+        assertFalse(body.contains("\"must\""));
+        assertTrue(body.contains("\"filter\":[{\"match\":{\"all\""));
+        //-1表示不统计总数
+        assertTrue(body.contains("\"track_total_hits\":-1"));
+        assertTrue(body.contains("\"execution_hint\":\"global_ordinals\""));
+        assertTrue(es.lastQuery("_search").contains("request_cache=true"));
+    }
+
+    @Test
+    void repeatedSearchIsServedFromCache() {
+        RequestParams params = new RequestParams();
+        params.setKey(" ");
+        params.setPage(1);
+        params.setSize(5);
+        RequestParams same = new RequestParams();
+        same.setKey("");
+        same.setPage(1);
+        same.setSize(5);
+
+        hotelService.search(params);
+        PageResult cached = hotelService.search(same);
+
+        assertEquals(1, es.count("_search"));
+        assertEquals(2, cached.getHotels().size());
+
+        //数据变更后重新查询
+        searchCache.onHotelChanged(new HotelChangedEvent(Collections.emptyList(), Collections.singletonList(1L)));
+        hotelService.search(same);
+        assertEquals(2, es.count("_search"));
+    }
+
+    @Test
+    void termFiltersWithSpacesAreCachedSeparately() {
+        RequestParams padded = new RequestParams();
+        padded.setCity(" 上海");
+        padded.setPage(1);
+        padded.setSize(5);
+        RequestParams exact = new RequestParams();
+        exact.setCity("上海");
+        exact.setPage(1);
+        exact.setSize(5);
+
+        hotelService.search(padded);
+        hotelService.search(exact);
+
+        //term查询按原值匹配，两次查询的条件不同，不能共用缓存
+        assertEquals(2, es.count("_search"));
+        assertTrue(es.lastBody("_search").contains("\"city\":{\"value\":\"上海\""));
+    }
+
+    @Test
+    void searchAsyncSharesCacheWithSearch() throws Exception {
+        RequestParams params = new RequestParams();
+        params.setKey("希尔顿");
+        params.setPage(1);
+        params.setSize(5);
+
+        PageResult result = hotelService.searchAsync(params).get(5, TimeUnit.SECONDS);
+        assertEquals(1, es.count("_search"));
+        assertEquals("上海希尔顿酒店", result.getHotels().get(0).getName());
+
+        hotelService.search(params);
+        hotelService.searchAsync(params).get(5, TimeUnit.SECONDS);
+        assertEquals(1, es.count("_search"));
+    }
+
+    @Test
+    void searchWithFacetsAsyncParsesAggregations() throws Exception {
+        es.respond("_search", "/es/search-facets-response.json");
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(5);
+        params.setLocation("31.21, 121.5");
+
+        FacetPageResult result = hotelService.searchWithFacetsAsync(params).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, result.getHotels().size());
+        assertEquals(Collections.singletonList("希尔顿"), result.getFilters().get("品牌"));
+    }
+
+    @Test
+    void geoCellSearchReranksCachedCandidates() throws Exception {
+        SearchProperties searchProperties = geoCellProperties(200);
+        ReflectionTestUtils.setField(hotelService, "searchProperties", searchProperties);
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(5);
+        params.setLocation("31.19, 121.40");
+
+        PageResult hongqiao = hotelService.search(params);
+
+        assertEquals(1, es.count("_search"));
+        //按网格中心取候选集
+        String body = es.lastBody("_search");
+        assertTrue(body.contains("\"from\":0,\"size\":200"));
+        assertFalse(body.contains("31.19"));
+        assertEquals(2L, hongqiao.getTotal());
+        assertEquals("上海虹桥祥源希尔顿酒店", hongqiao.getHotels().get(0).getName());
+        double distance = (Double) hongqiao.getHotels().get(0).getDistance();
+        assertTrue(distance > 0.4 && distance < 0.6);
+
+        //同一个网格内的其他位置不再查询索引库，按精确距离重新排序
+        params.setLocation("31.21, 121.43");
+        PageResult jingan = hotelService.search(params);
+        assertEquals("上海希尔顿酒店", jingan.getHotels().get(0).getName());
+        params.setLocation("31.20, 121.44");
+        PageResult async = hotelService.searchAsync(params).get(5, TimeUnit.SECONDS);
+        assertEquals("上海希尔顿酒店", async.getHotels().get(0).getName());
+        assertEquals(1, es.count("_search"));
+        assertEquals(distance, hongqiao.getHotels().get(0).getDistance());
+    }
+
+    @Test
+    void geoCellSearchFallsBackWhenCandidatesMayMissResults() throws Exception {
+        //候选集已满，网格半径远大于最后一个候选的距离，无法保证结果精确
+        ReflectionTestUtils.setField(hotelService, "searchProperties", geoCellProperties(2));
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(2);
+        params.setLocation("31.19, 121.40");
+
+        PageResult result = hotelService.search(params);
+
+        assertEquals(2, es.count("_search"));
+        assertTrue(es.lastBody("_search").contains("31.19"));
+        assertEquals(1.2345, result.getHotels().get(0).getDistance());
+
+        hotelService.searchAsync(params).get(5, TimeUnit.SECONDS);
+        assertEquals(3, es.count("_search"));
+    }
+
+    @Test
+    void nearbySearchWidensRadiusUntilPageIsFilled() throws Exception {
+        //总数100，每个范围内都只有2家
+        es.respondIf("_search", "\"size\":0", "/es/search-count-response.json");
+        SearchProperties searchProperties = new SearchProperties();
+        searchProperties.getNearby().setEnabled(true);
+        ReflectionTestUtils.setField(hotelService, "searchProperties", searchProperties);
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(5);
+        params.setLocation("31.21, 121.5");
+
+        PageResult result = hotelService.search(params);
+
+        List<String> bodies = es.bodies("_search");
+        assertEquals(5, bodies.size());
+        assertTrue(bodies.get(0).contains("\"size\":0"));
+        assertFalse(bodies.get(0).contains("_geo_distance"));
+        assertTrue(bodies.get(1).contains("\"distance\":3000.0"));
+        assertTrue(bodies.get(2).contains("\"distance\":12000.0"));
+        assertTrue(bodies.get(3).contains("\"distance\":48000.0"));
+        //超过最大半径后不限定范围
+        assertFalse(bodies.get(4).contains("{\"geo_distance\""));
+        assertTrue(bodies.get(4).contains("_geo_distance"));
+        assertEquals(1.2345, result.getHotels().get(0).getDistance());
+
+        //第一个范围内就够一页，总数使用缓存
+        params.setSize(2);
+        PageResult nearby = hotelService.searchAsync(params).get(5, TimeUnit.SECONDS);
+        bodies = es.bodies("_search");
+        assertEquals(6, bodies.size());
+        assertTrue(bodies.get(5).contains("\"distance\":3000.0"));
+        assertEquals(100L, nearby.getTotal());
+        assertEquals(2, nearby.getHotels().size());
+    }
+
+    @Test
+    void cursorSearchPagesWithPointInTime() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(hotelService, "esMetrics", esMetrics(registry, new SearchProperties()));
+        es.respondWith("_pit", "{\"id\":\"pit-1\"}");
+        es.respond("_search", "/es/search-pit-response.json");
+        RequestParams params = new RequestParams();
+        params.setSize(2);
+        params.setLocation("31.21, 121.5");
+        params.setCursor("");
+
+        PageResult first = hotelService.search(params);
+
+        assertEquals(1, es.count("_pit"));
+        String body = es.lastBody("_search");
+        assertTrue(body.contains("\"pit\":{\"id\":\"pit-1\""));
+        assertTrue(body.contains("\"id\":{\"order\":\"asc\"}"));
+        assertFalse(body.contains("\"from\""));
+        assertFalse(body.contains("search_after"));
+        assertEquals(6.789, first.getHotels().get(1).getDistance());
+        assertNotNull(first.getCursor());
+
+        //下一页使用上一页最后一条的排序值和最新的pit id，不足一页时释放pit
+        params.setSize(5);
+        params.setCursor(first.getCursor());
+        PageResult second = hotelService.searchAsync(params).get(5, TimeUnit.SECONDS);
+
+        body = es.lastBody("_search");
+        assertTrue(body.contains("\"pit\":{\"id\":\"pit-2\""));
+        assertTrue(body.contains("\"search_after\":[6.789,\"60922\"]"));
+        assertNull(second.getCursor());
+        //打开和释放pit也记录耗时
+        Timer pit = registry.get("hotel.es.round.trip").tag("endpoint", "pit").timer();
+        for (int i = 0; i < 50 && pit.count() < 2; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(2, pit.count());
+        assertEquals(2, es.count("_pit"));
+        assertEquals(2, es.count("_search"));
+    }
+
+    @Test
+    void sortByPriceKeepsDistanceAsSecondSort() throws IOException {
+        String response = StreamUtils.copyToString(getClass().getResourceAsStream("/es/search-response.json"),
+                StandardCharsets.UTF_8);
+        es.respondWith("_search", response.replace("[1.2345]", "[2688, 1.2345]").replace("[6.789]", "[1108, 6.789]"));
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(5);
+        params.setSortBy("price");
+        params.setLocation("31.21, 121.5");
+
+        PageResult result = hotelService.search(params);
+
+        String body = es.lastBody("_search");
+        assertTrue(body.indexOf("\"price\":{\"order\":\"asc\"}") < body.indexOf("_geo_distance"));
+        assertEquals(1.2345, result.getHotels().get(0).getDistance());
+    }
+
+    @Test
+    void sortByScoreSortsDescending() {
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(5);
+        params.setSortBy("score");
+
+        PageResult result = hotelService.search(params);
+
+        assertTrue(es.lastBody("_search").contains("\"sort\":[{\"score\":{\"order\":\"desc\"}}]"));
+        assertNull(result.getHotels().get(0).getDistance());
+    }
+
+    @Test
+    void writeSearchCopiesSourceAndSplicesDistance() {
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(5);
+        params.setLocation("31.21, 121.5");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        hotelService.writeSearch(params, out);
+
+        String json = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        //_source按原样输出，保留原始格式
+        assertTrue(json.contains("\"suggestion\": [\"希尔顿\", \"静安寺地区\"],\"distance\":1.2345}"));
+        JSONObject result = JSON.parseObject(json);
+        assertEquals(2, result.getIntValue("total"));
+        assertEquals("上海希尔顿酒店", result.getJSONArray("hotels").getJSONObject(0).getString("name"));
+        assertEquals(6.789, result.getJSONArray("hotels").getJSONObject(1).getDoubleValue("distance"));
+        assertEquals(1, es.count("_search"));
+    }
+
+    @Test
+    void writeSearchWithoutLocationHasNoDistance() {
+        es.respondWith("_search", "{\"hits\":{\"total\":{\"value\":3,\"relation\":\"eq\"},\"hits\":["
+                + "{\"_id\":\"1\",\"_source\":{\"id\":1},\"sort\":[2]},{\"_id\":\"2\",\"_source\":{ }}]}}");
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(5);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        hotelService.writeSearch(params, out);
+
+        assertEquals("{\"total\":3,\"hotels\":[{\"id\":1},{ }]}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void listViewFetchesOnlyListFields() {
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(5);
+
+        PageResult result = hotelService.search(params);
+
+        String body = es.lastBody("_search");
+        assertTrue(body.contains("\"_source\":{\"includes\":[\"id\",\"name\",\"address\""));
+        assertFalse(body.contains("suggestion"));
+        assertEquals(HotelListDoc.class, result.getHotels().get(0).getClass());
+        assertEquals("31.219306, 121.445427", result.getHotels().get(0).getLocation());
+    }
+
+    @Test
+    void fullViewReturnsAllFields() {
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(5);
+        params.setView("full");
+
+        PageResult result = hotelService.search(params);
+
+        assertFalse(es.lastBody("_search").contains("\"_source\""));
+        HotelDoc hotelDoc = (HotelDoc) result.getHotels().get(0);
+        assertEquals(Arrays.asList("希尔顿", "静安寺地区"), hotelDoc.getSuggestion());
+    }
+
+    @Test
+    void searchWithoutLocationHasNoDistance() {
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(5);
+
+        PageResult result = hotelService.search(params);
+
+        assertNull(result.getHotels().get(0).getDistance());
+    }
+
+    @Test
+    void locationSearchIsNotCached() {
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(5);
+        params.setLocation("31.21, 121.5");
+
+        hotelService.search(params);
+        hotelService.search(params);
+
+        assertEquals(2, es.count("_search"));
+    }
+
+    @Test
+    void invalidOrExpiredCursorsAreReportedToTheClient() throws Exception {
+        RequestParams params = new RequestParams();
+        params.setSize(2);
+        params.setCursor("不是游标");
+        assertThrows(InvalidCursorException.class, () -> hotelService.search(params));
+        //格式正确但没有point in time id
+        params.setCursor(cursor("{\"after\":[6.789,\"60922\"]}"));
+        assertThrows(InvalidCursorException.class, () -> hotelService.search(params));
+        params.setCursor(cursor("{\"pit\":\" \",\"after\":[6.789,\"60922\"]}"));
+        assertThrows(InvalidCursorException.class, () -> hotelService.search(params));
+        //排序值个数与排序不一致：按价格和距离排序有3个排序值
+        params.setLocation("31.21, 121.5");
+        params.setSortBy("price");
+        params.setCursor(cursor("{\"pit\":\"pit-1\",\"after\":[6.789,\"60922\"]}"));
+        assertThrows(InvalidCursorException.class, () -> hotelService.search(params));
+        params.setLocation(null);
+        params.setSortBy(null);
+        params.setCursor(cursor("{\"pit\":\"pit-1\",\"after\":[399,6.789,\"60922\"]}"));
+        assertThrows(InvalidCursorException.class, () -> hotelService.search(params));
+        assertEquals(0, es.count("_search"));
+
+        //point in time已经过期
+        es.respondWith("_search", 404, "{\"error\":{\"root_cause\":[{\"type\":\"search_context_missing_exception\","
+                + "\"reason\":\"No search context found for id [1]\"}],\"type\":\"search_phase_execution_exception\","
+                + "\"reason\":\"all shards failed\"},\"status\":404}");
+        params.setCursor(cursor("{\"pit\":\"pit-1\",\"after\":[6.789,\"60922\"]}"));
+        ExecutionException expired = assertThrows(ExecutionException.class,
+                () -> hotelService.searchAsync(params).get(5, TimeUnit.SECONDS));
+        assertTrue(expired.getCause() instanceof CursorExpiredException);
+
+        //不返回数据时没有下一页
+        es.respondWith("_pit", "{\"id\":\"pit-1\"}");
+        es.respondWith("_search", "{\"took\":1,\"timed_out\":false,\"pit_id\":\"pit-2\","
+                + "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},"
+                + "\"hits\":{\"total\":{\"value\":2,\"relation\":\"eq\"},\"max_score\":null,\"hits\":[]}}");
+        params.setSize(0);
+        params.setCursor("");
+        PageResult empty = hotelService.search(params);
+        assertTrue(empty.getHotels().isEmpty());
+        assertNull(empty.getCursor());
+    }
+
+    @Test
+    void esCallsAreTimedPerEndpoint() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        SearchProperties searchProperties = new SearchProperties();
+        //每个查询都超过阈值，走一遍慢查询日志
+        searchProperties.setSlowQueryMs(1);
+        es.latency(2000, 2000);
+        ReflectionTestUtils.setField(hotelService, "esMetrics", esMetrics(registry, searchProperties));
+        RequestParams params = new RequestParams();
+        params.setKey("希尔顿");
+        params.setPage(1);
+        params.setSize(5);
+
+        hotelService.search(params);
+        //换一页，不命中缓存
+        params.setPage(2);
+        hotelService.searchAsync(params).get(5, TimeUnit.SECONDS);
+        es.respondWith("_search", "不是json");
+        assertThrows(RuntimeException.class, () -> hotelService.filters(params));
+
+        assertEquals(2, registry.get("hotel.es.took").tag("endpoint", "list").timer().count());
+        Timer roundTrip = registry.get("hotel.es.round.trip").tag("endpoint", "list").timer();
+        assertEquals(2, roundTrip.count());
+        assertTrue(roundTrip.max(TimeUnit.MICROSECONDS) >= 2000);
+        assertEquals(2, registry.get("hotel.es.parse").tag("endpoint", "list").timer().count());
+        DistributionSummary size = registry.get("hotel.es.response.size").tag("endpoint", "list").summary();
+        long fixtureBytes = Files.size(Paths.get(getClass().getResource("/es/search-response.json").toURI()));
+        assertEquals(2 * fixtureBytes, (long) size.totalAmount());
+        assertEquals(1, registry.get("hotel.es.errors").tag("endpoint", "filters").counter().count());
+    }
+
+    @Test
+    void busyEndpointsServeStaleOrDegradedResults() throws Exception {
+        LimitProperties limitProperties = new LimitProperties();
+        limitProperties.setList(new LimitProperties.Budget(1, 1, 1, 1000));
+        limitProperties.setFilters(new LimitProperties.Budget(1, 1, 1, 1000));
+        SearchLimiter searchLimiter = searchLimiter(limitProperties);
+        ReflectionTestUtils.setField(hotelService, "searchLimiter", searchLimiter);
+        ReflectionTestUtils.setField(hotelService, "suggestionIndex", new HotelSuggestionIndex());
+        RequestParams params = new RequestParams();
+        params.setKey("希尔顿");
+        params.setPage(1);
+        params.setSize(5);
+        PageResult fresh = hotelService.search(params);
+        searchCache.invalidateAll();
+
+        //列表和过滤项的并发被占满
+        CompletableFuture<PageResult> busyList = new CompletableFuture<>();
+        searchLimiter.executeAsync(LIST, () -> busyList, null);
+        CompletableFuture<PageResult> busyFilters = new CompletableFuture<>();
+        searchLimiter.executeAsync(FILTERS, () -> busyFilters, null);
+
+        assertSame(fresh, hotelService.searchAsync(params).get(5, TimeUnit.SECONDS));
+        //页面加载的查询不做聚合，只返回列表
+        FacetPageResult listOnly = hotelService.searchWithFacetsAsync(params).get(5, TimeUnit.SECONDS);
+        assertSame(fresh.getHotels(), listOnly.getHotels());
+        assertTrue(listOnly.getFilters().isEmpty());
+        params.setPage(2);
+        assertThrows(SearchRejectedException.class, () -> hotelService.search(params));
+        //没有过期缓存和本地计数时不返回过滤项
+        assertTrue(hotelService.filtersAsync(params).get(5, TimeUnit.SECONDS).isEmpty());
+        //列表繁忙时不再查询补全
+        assertEquals(Collections.emptyList(), hotelService.getSuggestionsAsync("rj").get(5, TimeUnit.SECONDS));
+        assertEquals(1, es.count("_search"));
+
+        busyList.complete(fresh);
+        busyFilters.complete(fresh);
+        hotelService.search(params);
+        assertEquals(2, es.count("_search"));
+    }
+
+    @Test
+    void identicalConcurrentSearchesShareOneEsCall() throws Exception {
+        es.latency(200_000, 200_000);
+        //带位置的查询不缓存，只靠合并
+        RequestParams params = new RequestParams();
+        params.setCity("上海");
+        params.setPage(1);
+        params.setSize(5);
+        params.setLocation("31.21, 121.5");
+        List<CompletableFuture<PageResult>> results = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            RequestParams same = new RequestParams();
+            BeanUtils.copyProperties(params, same);
+            results.add(hotelService.searchAsync(same));
+        }
+
+        PageResult first = results.get(0).get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<PageResult> result : results) {
+            assertSame(first, result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, es.count("_search"));
+    }
+
+    private static String cursor(String json) {
+        return Base64.getUrlEncoder().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static SearchProperties geoCellProperties(int candidates) {
+        SearchProperties searchProperties = new SearchProperties();
+        searchProperties.getGeoCell().setEnabled(true);
+        searchProperties.getGeoCell().setPrecision(4);
+        searchProperties.getGeoCell().setCandidates(candidates);
+        return searchProperties;
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.es = new EsStubServer().respond("_search", "/es/search-response.json");
+        this.client = es.client();
+        this.hotelService = newHotelService(client);
+        this.searchCache = new HotelSearchCache();
+        ReflectionTestUtils.setField(searchCache, "cacheProperties", new SearchCacheProperties());
+        ReflectionTestUtils.setField(searchCache, "meterRegistry", new SimpleMeterRegistry());
+        searchCache.init();
+        ReflectionTestUtils.setField(hotelService, "searchCache", searchCache);
+        ReflectionTestUtils.setField(hotelService, "searchProperties", new SearchProperties());
+        ReflectionTestUtils.setField(hotelService, "facetIndex", new HotelFacetIndex());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        this.searchCache.destroy();
+        this.client.close();
+        this.es.close();
+    }
+}
@@ -0,0 +1,188 @@
+package cn.itcast.hotel;
+
+import cn.itcast.hotel.config.SuggestionProperties;
+import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelChangedEvent;
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.service.impl.HotelService;
+import cn.itcast.hotel.service.impl.HotelSuggestionIndex;
+import cn.itcast.hotel.service.impl.SuggestionTrie;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static cn.itcast.hotel.HotelServiceFixtures.newHotelService;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HotelSuggestionIndexTest {
+    private EsStubServer es;
+    private RestHighLevelClient client;
+    private HotelMapper hotelMapper;
+    private HotelSuggestionIndex suggestionIndex;
+    private HotelService hotelService;
+    private SuggestionProperties properties;
+
+    @Test
+    void trieReturnsTopTermsByWeight() {
+        Map<String, Integer> weights = new HashMap<>();
+        weights.put("如家", 3);
+        weights.put("如家精选", 1);
+        weights.put("汉庭", 5);
+        weights.put("Hilton", 2);
+        weights.put("和颐", 2);
+        SuggestionTrie trie = SuggestionTrie.build(weights, 10);
+
+        assertEquals(Arrays.asList("如家", "如家精选"), trie.suggest("如", 10));
+        assertEquals(Collections.singletonList("如家精选"), trie.suggest("如家精", 10));
+        assertEquals(Collections.singletonList("Hilton"), trie.suggest(" hil", 10));
+        assertEquals(Collections.singletonList("如家"), trie.suggest("如", 1));
+        assertTrue(trie.suggest("希尔顿", 10).isEmpty());
+        assertTrue(trie.suggest("", 10).isEmpty());
+    }
+
+    @Test
+    void loadsFromDatabaseAndUpdatesFromEvents() {
+        when(hotelMapper.selectList(any())).thenReturn(Arrays.asList(
+                hotel(1L, "如家", "三里屯/工体"), hotel(2L, "汉庭", "三里屯/望京")));
+        suggestionIndex.load();
+
+        assertTrue(suggestionIndex.isReady());
+        //两个酒店的三里屯只保留一条
+        assertEquals(Collections.singletonList("三里屯"), suggestionIndex.suggest("三"));
+        assertEquals(Collections.singletonList("工体"), suggestionIndex.suggest("工"));
+
+        suggestionIndex.onHotelChanged(new HotelChangedEvent(
+                Collections.singletonList(new HotelDoc(hotel(3L, "7天", "国贸/CBD"))),
+                Collections.singletonList(1L)));
+
+        assertTrue(suggestionIndex.suggest("工").isEmpty());
+        assertTrue(suggestionIndex.suggest("如").isEmpty());
+        assertEquals(Collections.singletonList("国贸"), suggestionIndex.suggest("国"));
+        assertEquals(Collections.singletonList("三里屯"), suggestionIndex.suggest("三"));
+    }
+
+    @Test
+    void eventsDuringLoadWinOverRowsReadBeforeThem() {
+        //读出数据库的一批数据后、加入补全词前收到1号酒店删除和2号酒店修改的事件
+        when(hotelMapper.selectList(any())).thenAnswer(invocation -> {
+            suggestionIndex.onHotelChanged(new HotelChangedEvent(
+                    Collections.singletonList(new HotelDoc(hotel(2L, "汉庭", "国贸/CBD"))),
+                    Collections.singletonList(1L)));
+            return Arrays.asList(hotel(1L, "如家", "三里屯/工体"), hotel(2L, "汉庭", "三里屯/望京"));
+        });
+        suggestionIndex.load();
+
+        assertTrue(suggestionIndex.suggest("如").isEmpty());
+        assertTrue(suggestionIndex.suggest("三").isEmpty());
+        assertEquals(Collections.singletonList("国贸"), suggestionIndex.suggest("国"));
+
+        //加载完成后不再跳过
+        when(hotelMapper.selectList(any())).thenReturn(Collections.singletonList(hotel(1L, "如家", "三里屯/工体")));
+        suggestionIndex.load();
+        assertEquals(Collections.singletonList("如家"), suggestionIndex.suggest("如"));
+    }
+
+    @Test
+    void skipsRebuildWhenTermsAreUnchanged() {
+        when(hotelMapper.selectList(any())).thenReturn(Collections.singletonList(hotel(1L, "如家", "三里屯/工体")));
+        suggestionIndex.load();
+        Object trie = ReflectionTestUtils.getField(suggestionIndex, "trie");
+
+        //只改了价格，补全词不变
+        HotelDoc priceChanged = new HotelDoc(hotel(1L, "如家", "三里屯/工体"));
+        priceChanged.setPrice(399);
+        suggestionIndex.onHotelChanged(new HotelChangedEvent(Collections.singletonList(priceChanged),
+                Collections.emptyList()));
+        assertSame(trie, ReflectionTestUtils.getField(suggestionIndex, "trie"));
+    }
+
+    @Test
+    void coalescesRebuildsWithinDelay() throws Exception {
+        when(hotelMapper.selectList(any())).thenReturn(Collections.singletonList(hotel(1L, "如家", "三里屯/工体")));
+        properties.setRebuildDelayMs(300);
+        //后台加载完成后ready才为true，之后不会再有加载的rebuild
+        suggestionIndex.onApplicationReady();
+        waitFor(() -> suggestionIndex.isReady());
+        suggestionIndex.onHotelChanged(new HotelChangedEvent(
+                Collections.singletonList(new HotelDoc(hotel(2L, "汉庭", "国贸/CBD"))), Collections.emptyList()));
+        suggestionIndex.onHotelChanged(new HotelChangedEvent(
+                Collections.singletonList(new HotelDoc(hotel(3L, "7天", "工体/三里屯"))), Collections.emptyList()));
+        assertTrue(suggestionIndex.suggest("国").isEmpty());
+        //延迟期间的多次变更一起生效
+        waitFor(() -> !suggestionIndex.suggest("国").isEmpty());
+        assertEquals(Collections.singletonList("7天"), suggestionIndex.suggest("7"));
+    }
+
+    @Test
+    void fallsBackToElasticsearchWhenNoLocalMatch() throws Exception {
+        es.respond("_search", "/es/suggest-response.json");
+        when(hotelMapper.selectList(any())).thenReturn(Collections.singletonList(hotel(1L, "如家", "三里屯/工体")));
+        suggestionIndex.load();
+
+        assertEquals(Collections.singletonList("如家"), hotelService.getSuggestions("如"));
+        assertEquals(0, es.count("_search"));
+
+        //拼音等本地无法匹配的前缀查询索引库
+        assertEquals(Arrays.asList("三里屯", "首都机场"), hotelService.getSuggestions("sd"));
+        assertEquals(1, es.count("_search"));
+
+        assertEquals(Collections.singletonList("如家"), hotelService.getSuggestionsAsync("如").get(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("三里屯", "首都机场"), hotelService.getSuggestionsAsync("sd").get(5, TimeUnit.SECONDS));
+        assertEquals(2, es.count("_search"));
+    }
+
+    private static Hotel hotel(Long id, String brand, String business) {
+        Hotel hotel = new Hotel();
+        hotel.setId(id);
+        hotel.setName(brand + "酒店");
+        hotel.setAddress("地址" + id);
+        hotel.setBrand(brand);
+        hotel.setBusiness(business);
+        return hotel;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "等待超时");
+            Thread.sleep(5);
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.es = new EsStubServer();
+        this.client = es.client();
+        this.hotelMapper = mock(HotelMapper.class);
+        this.properties = new SuggestionProperties();
+        properties.setLocalEnabled(true);
+        this.suggestionIndex = new HotelSuggestionIndex();
+        ReflectionTestUtils.setField(suggestionIndex, "hotelMapper", hotelMapper);
+        ReflectionTestUtils.setField(suggestionIndex, "suggestionProperties", properties);
+        this.hotelService = newHotelService(client);
+        ReflectionTestUtils.setField(hotelService, "suggestionIndex", suggestionIndex);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        this.suggestionIndex.destroy();
+        this.client.close();
+        this.es.close();
+    }
+}
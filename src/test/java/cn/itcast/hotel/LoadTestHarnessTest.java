@@ -0,0 +1,27 @@
+package cn.itcast.hotel;
+
+import cn.itcast.hotel.benchmark.LoadTestHarness;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LoadTestHarnessTest {
+
+    @Test
+    void drivesAllEndpointsWithoutErrors() throws Exception {
+        LoadTestHarness.Options options = new LoadTestHarness.Options();
+        options.setHotels(200);
+        options.setThreads(4);
+        options.setWarmupSeconds(1);
+        options.setDurationSeconds(2);
+        options.setLocalIndexes(true);
+
+        LoadTestHarness.Report report = LoadTestHarness.run(options);
+
+        for (String endpoint : new String[]{LoadTestHarness.LIST, LoadTestHarness.FILTERS, LoadTestHarness.SUGGESTION}) {
+            assertTrue(report.getHistograms().get(endpoint).getTotalCount() > 0, endpoint);
+            assertEquals(0L, report.getErrors().get(endpoint), endpoint);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package cn.itcast.hotel;
+
+import cn.itcast.hotel.config.SearchProperties;
+import cn.itcast.hotel.service.impl.SearchCoalescer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cn.itcast.hotel.service.impl.EsCallMetrics.FILTERS;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.LIST;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SearchCoalescerTest {
+    private SimpleMeterRegistry registry;
+    private SearchProperties properties;
+    private SearchCoalescer coalescer;
+
+    @Test
+    void concurrentIdenticalCallsShareOneCall() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CompletableFuture<String> es = new CompletableFuture<>();
+
+        CompletableFuture<String> first = coalescer.executeAsync(LIST, "上海", () -> {
+            calls.incrementAndGet();
+            return es;
+        });
+        CompletableFuture<String> second = coalescer.executeAsync(LIST, "上海", () -> {
+            calls.incrementAndGet();
+            return CompletableFuture.completedFuture("second");
+        });
+        //不同的条件、不同的接口不合并
+        coalescer.executeAsync(LIST, "北京", () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        coalescer.executeAsync(FILTERS, "上海", () -> {
+            calls.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        es.complete("es");
+
+        assertEquals("es", first.get());
+        assertEquals("es", second.get());
+        assertEquals(3, calls.get());
+        assertEquals(1, count(LIST, "follower"));
+        assertEquals(2, count(LIST, "leader"));
+
+        //完成后的请求重新查询
+        assertEquals("again", coalescer.executeAsync(LIST, "上海",
+                () -> CompletableFuture.completedFuture("again")).get());
+    }
+
+    @Test
+    void failureReachesEveryWaiterAndIsNotKept() throws Exception {
+        CompletableFuture<String> es = new CompletableFuture<>();
+        CompletableFuture<String> first = coalescer.executeAsync(LIST, "上海", () -> es);
+        CompletableFuture<String> second = coalescer.executeAsync(LIST, "上海", CompletableFuture::new);
+
+        IOException timeout = new IOException("timeout");
+        es.completeExceptionally(timeout);
+
+        assertSame(timeout, assertThrows(ExecutionException.class, first::get).getCause());
+        assertSame(timeout, assertThrows(ExecutionException.class, second::get).getCause());
+        assertEquals("retry", coalescer.executeAsync(LIST, "上海",
+                () -> CompletableFuture.completedFuture("retry")).get());
+    }
+
+    @Test
+    void cancelledWaiterDoesNotAffectOthers() throws Exception {
+        CompletableFuture<String> es = new CompletableFuture<>();
+        CompletableFuture<String> first = coalescer.executeAsync(LIST, "上海", () -> es);
+        CompletableFuture<String> second = coalescer.executeAsync(LIST, "上海", CompletableFuture::new);
+
+        //例如异步请求超时
+        first.cancel(false);
+        es.complete("es");
+
+        assertEquals("es", second.get());
+        assertTrue(first.isCancelled());
+    }
+
+    @Test
+    void passesThroughWhenDisabled() throws Exception {
+        properties.setCoalesce(false);
+        CompletableFuture<String> es = new CompletableFuture<>();
+        coalescer.executeAsync(LIST, "上海", () -> es);
+
+        assertEquals("es", coalescer.executeAsync(LIST, "上海", () -> CompletableFuture.completedFuture("es")).get());
+    }
+
+    private double count(String endpoint, String role) {
+        return registry.get("hotel.search.coalesce").tags("endpoint", endpoint, "role", role).counter().count();
+    }
+
+    @BeforeEach
+    void setUp() {
+        this.registry = new SimpleMeterRegistry();
+        this.properties = new SearchProperties();
+        this.coalescer = new SearchCoalescer();
+        ReflectionTestUtils.setField(coalescer, "searchProperties", properties);
+        ReflectionTestUtils.setField(coalescer, "meterRegistry", registry);
+        coalescer.init();
+    }
+}
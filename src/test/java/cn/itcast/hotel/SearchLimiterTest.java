@@ -0,0 +1,145 @@
+package cn.itcast.hotel;
+
+import cn.itcast.hotel.config.LimitProperties;
+import cn.itcast.hotel.service.SearchRejectedException;
+import cn.itcast.hotel.service.impl.SearchLimiter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static cn.itcast.hotel.service.impl.EsCallMetrics.FACETS;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.FILTERS;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.LIST;
+import static cn.itcast.hotel.service.impl.EsCallMetrics.SUGGESTION;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SearchLimiterTest {
+    private SimpleMeterRegistry registry;
+    private LimitProperties properties;
+
+    @Test
+    void rejectsOverLimitWithFallbackOr503() throws Exception {
+        SearchLimiter limiter = limiter();
+        List<CompletableFuture<String>> pending = hold(limiter, FILTERS, 2);
+
+        assertEquals("stale", limiter.executeAsync(FILTERS, CompletableFuture::new, () -> "stale").get());
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> limiter.executeAsync(FILTERS, CompletableFuture::new, () -> null).get());
+        assertTrue(e.getCause() instanceof SearchRejectedException);
+        assertThrows(SearchRejectedException.class, () -> limiter.execute(FILTERS, () -> "es", null));
+        assertEquals(1, rejected("filters", true));
+        assertEquals(2, rejected("filters", false));
+        //带分面的查询与列表共用并发，不受过滤项的影响
+        assertEquals("es", limiter.execute(FACETS, () -> "es", null));
+
+        //完成后释放并发
+        pending.forEach(future -> future.complete("es"));
+        assertEquals(0, gauge("hotel.limit.inflight", "filters"));
+        assertEquals("es", limiter.execute(FILTERS, () -> "es", () -> "stale"));
+    }
+
+    @Test
+    void backsOffOncePerWindowAndGrowsBackWhenFast() throws Exception {
+        SearchLimiter limiter = limiter();
+        List<CompletableFuture<String>> slow = hold(limiter, LIST, 2);
+        Thread.sleep(60);
+        slow.forEach(future -> future.complete("es"));
+        //同时发出的两个慢请求只减小一次
+        assertEquals(9, gauge("hotel.limit.limit", "list"), 1e-9);
+
+        //失败也减小上限
+        assertThrows(IllegalStateException.class, () -> limiter.execute(LIST, () -> {
+            throw new IllegalStateException("es");
+        }, null));
+        assertEquals(8.1, gauge("hotel.limit.limit", "list"), 1e-9);
+
+        //并发用到上限一半以上时，快速完成的请求缓慢增加上限
+        for (int round = 0; round < 5; round++) {
+            hold(limiter, LIST, 5).forEach(future -> future.complete("es"));
+        }
+        assertTrue(gauge("hotel.limit.limit", "list") > 8.1);
+        assertTrue(gauge("hotel.limit.limit", "list") <= 10);
+        //空闲时不增加
+        double limit = gauge("hotel.limit.limit", "list");
+        limiter.execute(LIST, () -> "es", null);
+        assertEquals(limit, gauge("hotel.limit.limit", "list"), 1e-9);
+    }
+
+    @Test
+    void shedsSuggestionAndFiltersFirstWhenListIsBusy() throws Exception {
+        SearchLimiter limiter = limiter();
+        List<CompletableFuture<String>> list = hold(limiter, LIST, 7);
+        assertFalse(limiter.isListBusy());
+        list.addAll(hold(limiter, FACETS, 1));
+        assertTrue(limiter.isListBusy());
+
+        assertEquals("local", limiter.executeAsync(SUGGESTION, () -> CompletableFuture.completedFuture("es"),
+                () -> "local").get());
+        assertEquals("stale", limiter.execute(FILTERS, () -> "es", () -> "stale"));
+        //页面加载的查询在列表的并发用完前不受影响
+        assertEquals("es", limiter.execute(FACETS, () -> "es", () -> "stale"));
+        assertEquals("es", limiter.execute(LIST, () -> "es", () -> "stale"));
+
+        list.forEach(future -> future.complete("es"));
+        assertFalse(limiter.isListBusy());
+        assertEquals("es", limiter.execute(SUGGESTION, () -> "es", () -> "local"));
+        assertEquals("es", limiter.execute(FILTERS, () -> "es", () -> "stale"));
+    }
+
+    @Test
+    void passesThroughWhenDisabled() {
+        properties.setEnabled(false);
+        SearchLimiter limiter = limiter();
+        hold(limiter, FILTERS, 5);
+
+        assertEquals("es", limiter.execute(FILTERS, () -> "es", null));
+        assertNull(registry.find("hotel.limit.rejected").counter());
+    }
+
+    //发出count个不会自动完成的异步请求，占用并发
+    private static List<CompletableFuture<String>> hold(SearchLimiter limiter, String endpoint, int count) {
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            limiter.executeAsync(endpoint, () -> future, null);
+            futures.add(future);
+        }
+        return futures;
+    }
+
+    private double rejected(String endpoint, boolean degraded) {
+        return registry.get("hotel.limit.rejected").tags("endpoint", endpoint, "degraded", String.valueOf(degraded))
+                .counter().count();
+    }
+
+    private double gauge(String name, String budget) {
+        return registry.get(name).tag("budget", budget).gauge().value();
+    }
+
+    private SearchLimiter limiter() {
+        SearchLimiter limiter = new SearchLimiter();
+        ReflectionTestUtils.setField(limiter, "limitProperties", properties);
+        ReflectionTestUtils.setField(limiter, "meterRegistry", registry);
+        limiter.init();
+        return limiter;
+    }
+
+    @BeforeEach
+    void setUp() {
+        this.registry = new SimpleMeterRegistry();
+        this.properties = new LimitProperties();
+        properties.setList(new LimitProperties.Budget(10, 2, 20, 50));
+        properties.setFilters(new LimitProperties.Budget(2, 1, 10, 50));
+        properties.setSuggestion(new LimitProperties.Budget(5, 1, 10, 50));
+    }
+}
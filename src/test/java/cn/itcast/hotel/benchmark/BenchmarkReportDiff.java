@@ -0,0 +1,94 @@
+package cn.itcast.hotel.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 对比两个版本的基准测试结果(mvn -Pbenchmark生成的JSON)：
+ * java -cp target/test-classes:... cn.itcast.hotel.benchmark.BenchmarkReportDiff 旧版本.json 新版本.json
+ * 变化超出两次结果误差范围之和的标记为"变慢"或"变快"，有变慢的测试时退出码为1
+ */
+public class BenchmarkReportDiff {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("用法：BenchmarkReportDiff <基准结果.json> <当前结果.json>");
+            System.exit(2);
+        }
+        Map<String, JSONObject> baseline = load(args[0]);
+        Map<String, JSONObject> current = load(args[1]);
+        boolean regressed = false;
+        System.out.printf("%-70s %14s %14s %-8s %9s%n", "测试", "基准", "当前", "单位", "变化");
+        for (Map.Entry<String, JSONObject> entry : current.entrySet()) {
+            JSONObject after = entry.getValue().getJSONObject("primaryMetric");
+            JSONObject old = baseline.get(entry.getKey());
+            if (old == null) {
+                System.out.printf("%-70s %14s %14.3f %-8s %9s%n", entry.getKey(), "-",
+                        after.getDoubleValue("score"), after.getString("scoreUnit"), "新增");
+                continue;
+            }
+            JSONObject before = old.getJSONObject("primaryMetric");
+            double oldScore = before.getDoubleValue("score");
+            double newScore = after.getDoubleValue("score");
+            double change = (newScore - oldScore) / oldScore * 100;
+            //误差为NaN(只测了一轮)时按0处理
+            double error = errorOf(before) + errorOf(after);
+            String verdict = "";
+            if (Math.abs(newScore - oldScore) > error) {
+                //耗时越小越好，吞吐量越大越好
+                boolean slower = isThroughput(entry.getValue()) ? newScore < oldScore : newScore > oldScore;
+                verdict = slower ? " 变慢" : " 变快";
+                regressed |= slower;
+            }
+            System.out.printf("%-70s %14.3f %14.3f %-8s %+8.1f%%%s%n", entry.getKey(), oldScore, newScore,
+                    after.getString("scoreUnit"), change, verdict);
+        }
+        for (String name : baseline.keySet()) {
+            if (!current.containsKey(name)) {
+                System.out.printf("%-70s %14.3f %14s %-8s %9s%n", name,
+                        baseline.get(name).getJSONObject("primaryMetric").getDoubleValue("score"), "-",
+                        baseline.get(name).getJSONObject("primaryMetric").getString("scoreUnit"), "已删除");
+            }
+        }
+        if (regressed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 读取结果，测试名加上参数作为key，同一个测试的不同参数分开对比
+     */
+    private static Map<String, JSONObject> load(String file) throws IOException {
+        String json = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+        JSONArray results = JSON.parseArray(json);
+        Map<String, JSONObject> map = new LinkedHashMap<>();
+        for (int i = 0; i < results.size(); i++) {
+            JSONObject result = results.getJSONObject(i);
+            String name = result.getString("benchmark");
+            JSONObject params = result.getJSONObject("params");
+            if (params != null && !params.isEmpty()) {
+                name += params.toJSONString();
+            }
+            map.put(name, result);
+        }
+        return map;
+    }
+
+    private static double errorOf(JSONObject metric) {
+        //误差为NaN时JMH写入的是字符串"NaN"
+        Double error = metric.getDouble("scoreError");
+        return error == null || error.isNaN() ? 0 : error;
+    }
+
+    private static boolean isThroughput(JSONObject result) {
+        return "thrpt".equals(result.getString("mode"));
+    }
+}
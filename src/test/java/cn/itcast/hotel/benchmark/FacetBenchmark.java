@@ -0,0 +1,195 @@
+package cn.itcast.hotel.benchmark;
+
+import cn.itcast.hotel.pojo.RequestParams;
+import cn.itcast.hotel.service.impl.HotelService;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.forcemerge.ForceMergeRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
+import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static cn.itcast.hotel.HotelServiceFixtures.newHotelService;
+import static cn.itcast.hotel.constants.HotelConstants.MAPPING_TEMPLATE;
+
+/**
+ * 过滤项聚合：原来的算分查询与filter上下文+分片请求缓存的对比。
+ * 需要真实的索引库，运行时指定-Des.host=192.168.80.128:9200，
+ * 会创建临时索引并导入模拟数据，结束后删除；集群中不能已有hotel索引或别名
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FacetBenchmark {
+    private static final String INDEX = "hotel_bench_facet";
+    private static final String[] CITIES = {"上海", "北京", "深圳", "杭州"};
+    private static final String[] BRANDS = {"7天酒店", "如家", "速8", "皇冠假日", "华美达", "万怡", "喜来登", "万豪", "和颐", "希尔顿"};
+    private static final String[] STARS = {"二钻", "三钻", "四钻", "五钻", "四星级", "五星级"};
+    private static final String[] KEYS = {"", "外滩", "酒店", "机场", "希尔顿"};
+
+    @Param({"500000"})
+    private int hotels;
+
+    private RestHighLevelClient client;
+    private HotelService hotelService;
+    //页面上用户切换过滤条件的组合，重复出现
+    private RequestParams[] params;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String host = System.getProperty("es.host");
+        if (host == null) {
+            throw new IllegalStateException("需要真实的索引库，请指定-Des.host=ip:9200");
+        }
+        client = new RestHighLevelClient(RestClient.builder(HttpHost.create(host)));
+        if (client.indices().exists(new GetIndexRequest("hotel"), RequestOptions.DEFAULT)) {
+            throw new IllegalStateException("集群中已有hotel索引，请使用测试集群");
+        }
+        createIndex();
+        load();
+
+        hotelService = newHotelService(client);
+        Random random = new Random(7);
+        params = new RequestParams[200];
+        for (int i = 0; i < params.length; i++) {
+            RequestParams p = new RequestParams();
+            p.setKey(KEYS[random.nextInt(KEYS.length)]);
+            if (random.nextBoolean()) {
+                p.setCity(CITIES[random.nextInt(CITIES.length)]);
+            }
+            if (random.nextInt(3) == 0) {
+                p.setBrand(BRANDS[random.nextInt(BRANDS.length)]);
+            }
+            params[i] = p;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.indices().delete(new DeleteIndexRequest(INDEX), RequestOptions.DEFAULT);
+        client.close();
+    }
+
+    @Benchmark
+    public SearchResponse scoredQuery() throws IOException {
+        return client.search(scoredRequest(nextParams()), RequestOptions.DEFAULT);
+    }
+
+    //绕过本地缓存，只比较索引库的耗时
+    @Benchmark
+    public SearchResponse filterContext() throws IOException {
+        SearchRequest request = ReflectionTestUtils.invokeMethod(hotelService, "buildFiltersRequest", nextParams());
+        return client.search(request, RequestOptions.DEFAULT);
+    }
+
+    //改造前的过滤项查询：关键字参与算分，外层function score，不使用请求缓存
+    private SearchRequest scoredRequest(RequestParams p) {
+        BoolQueryBuilder boolQuery = QueryBuilders.boolQuery();
+        if (p.getKey() == null || p.getKey().isEmpty()) {
+            boolQuery.must(QueryBuilders.matchAllQuery());
+        } else {
+            boolQuery.must(QueryBuilders.matchQuery("all", p.getKey()));
+        }
+        if (p.getCity() != null) {
+            boolQuery.filter(QueryBuilders.termQuery("city", p.getCity()));
+        }
+        if (p.getBrand() != null) {
+            boolQuery.filter(QueryBuilders.termQuery("brand", p.getBrand()));
+        }
+        SearchRequest request = new SearchRequest("hotel");
+        request.requestCache(false);
+        request.source().size(0).query(QueryBuilders.functionScoreQuery(boolQuery,
+                new FunctionScoreQueryBuilder.FilterFunctionBuilder[]{
+                        new FunctionScoreQueryBuilder.FilterFunctionBuilder(
+                                QueryBuilders.termQuery("isAD", true),
+                                ScoreFunctionBuilders.weightFactorFunction(10))
+                }));
+        request.source().aggregation(AggregationBuilders.terms("brandAgg").field("brand").size(100));
+        request.source().aggregation(AggregationBuilders.terms("cityAgg").field("city").size(100));
+        request.source().aggregation(AggregationBuilders.terms("starAgg").field("starName").size(100));
+        return request;
+    }
+
+    private RequestParams nextParams() {
+        RequestParams p = params[next];
+        next = (next + 1) % params.length;
+        return p;
+    }
+
+    private void createIndex() throws IOException {
+        CreateIndexRequest request = new CreateIndexRequest(INDEX);
+        request.source(MAPPING_TEMPLATE, XContentType.JSON);
+        request.settings(Settings.builder().put(request.settings())
+                .put("index.number_of_replicas", 0).put("index.refresh_interval", "-1"));
+        request.alias(new Alias("hotel"));
+        client.indices().create(request, RequestOptions.DEFAULT);
+    }
+
+    private void load() throws IOException {
+        Random random = new Random(42);
+        BulkRequest bulk = new BulkRequest();
+        for (int i = 1; i <= hotels; i++) {
+            String city = CITIES[random.nextInt(CITIES.length)];
+            String brand = BRANDS[random.nextInt(BRANDS.length)];
+            String source = "{\"id\":" + i + ",\"name\":\"" + brand + "测试酒店" + i + "\",\"price\":"
+                    + (100 + random.nextInt(3000)) + ",\"score\":" + (30 + random.nextInt(21))
+                    + ",\"city\":\"" + city + "\",\"brand\":\"" + brand + "\",\"starName\":\""
+                    + STARS[random.nextInt(STARS.length)] + "\",\"business\":\"" + KEYS[1 + random.nextInt(KEYS.length - 1)]
+                    + "\",\"isAD\":" + (random.nextInt(100) == 0) + "}";
+            bulk.add(new IndexRequest(INDEX).id(String.valueOf(i)).source(source, XContentType.JSON));
+            if (bulk.numberOfActions() == 5000 || i == hotels) {
+                client.bulk(bulk, RequestOptions.DEFAULT);
+                bulk = new BulkRequest();
+            }
+        }
+        client.indices().refresh(new RefreshRequest(INDEX), RequestOptions.DEFAULT);
+        client.indices().forcemerge(new ForceMergeRequest(INDEX).maxNumSegments(1), RequestOptions.DEFAULT);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FacetBenchmark.class.getSimpleName())
+                .jvmArgsAppend("-Des.host=" + System.getProperty("es.host"))
+                .build()).run();
+    }
+}
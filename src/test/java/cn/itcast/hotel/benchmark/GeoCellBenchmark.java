@@ -0,0 +1,205 @@
+package cn.itcast.hotel.benchmark;
+
+import cn.itcast.hotel.config.SearchCacheProperties;
+import cn.itcast.hotel.config.SearchProperties;
+import cn.itcast.hotel.pojo.PageResult;
+import cn.itcast.hotel.pojo.RequestParams;
+import cn.itcast.hotel.service.impl.HotelFacetIndex;
+import cn.itcast.hotel.service.impl.HotelSearchCache;
+import cn.itcast.hotel.service.impl.HotelService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static cn.itcast.hotel.HotelServiceFixtures.newHotelService;
+import static cn.itcast.hotel.constants.HotelConstants.MAPPING_TEMPLATE;
+
+/**
+ * 按距离排序的列表查询：每次查询索引库与网格候选集缓存的对比，以及不同geohash长度下的效果。
+ * 结束时打印每次查询平均请求索引库的次数，越接近0说明命中缓存且结果精确的比例越高。
+ * 需要真实的索引库，运行时指定-Des.host=192.168.80.128:9200，
+ * 会创建临时索引并导入模拟数据，结束后删除；集群中不能已有hotel索引或别名
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class GeoCellBenchmark {
+    private static final String INDEX = "hotel_bench_geo";
+    //热门商圈：人民广场、陆家嘴、静安寺、徐家汇、虹桥
+    private static final double[][] HOT_SPOTS = {{31.2317, 121.4726}, {31.2397, 121.4998}, {31.2235, 121.4454},
+            {31.1950, 121.4365}, {31.1979, 121.3363}};
+
+    @Param({"500000"})
+    private int hotels;
+
+    @Param({"5", "6", "7"})
+    private int precision;
+
+    @Param({"200"})
+    private int candidates;
+
+    private RestHighLevelClient client;
+    private HotelSearchCache searchCache;
+    private HotelService exactService;
+    private HotelService geoCellService;
+    private String[] locations;
+    private int next;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder searches = new LongAdder();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String host = System.getProperty("es.host");
+        if (host == null) {
+            throw new IllegalStateException("需要真实的索引库，请指定-Des.host=ip:9200");
+        }
+        //统计发往索引库的请求数
+        client = new RestHighLevelClient(RestClient.builder(HttpHost.create(host))
+                .setHttpClientConfigCallback(builder -> builder.addInterceptorLast(
+                        (HttpRequestInterceptor) (request, context) -> requests.increment())));
+        if (client.indices().exists(new GetIndexRequest("hotel"), RequestOptions.DEFAULT)) {
+            throw new IllegalStateException("集群中已有hotel索引，请使用测试集群");
+        }
+        createIndex();
+        load();
+
+        searchCache = new HotelSearchCache();
+        SearchCacheProperties cacheProperties = new SearchCacheProperties();
+        cacheProperties.setTtlSeconds(3600);
+        ReflectionTestUtils.setField(searchCache, "cacheProperties", cacheProperties);
+        ReflectionTestUtils.setField(searchCache, "meterRegistry", new SimpleMeterRegistry());
+        searchCache.init();
+        exactService = service(new SearchProperties());
+        SearchProperties searchProperties = new SearchProperties();
+        searchProperties.getGeoCell().setEnabled(true);
+        searchProperties.getGeoCell().setPrecision(precision);
+        searchProperties.getGeoCell().setCandidates(candidates);
+        geoCellService = service(searchProperties);
+
+        //用户集中在热门商圈附近，距离商圈中心的标准差约1km
+        Random random = new Random(7);
+        locations = new String[10000];
+        for (int i = 0; i < locations.length; i++) {
+            double[] spot = HOT_SPOTS[random.nextInt(HOT_SPOTS.length)];
+            locations[i] = (spot[0] + random.nextGaussian() * 0.009) + ", " + (spot[1] + random.nextGaussian() * 0.01);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCounters() {
+        requests.reset();
+        searches.reset();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printCounters() {
+        if (searches.sum() > 0) {
+            System.out.printf("%n每次查询平均请求索引库%.3f次%n", (double) requests.sum() / searches.sum());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        searchCache.destroy();
+        client.indices().delete(new DeleteIndexRequest(INDEX), RequestOptions.DEFAULT);
+        client.close();
+    }
+
+    @Benchmark
+    public PageResult exact() {
+        return exactService.search(nextParams());
+    }
+
+    @Benchmark
+    public PageResult geoCell() {
+        return geoCellService.search(nextParams());
+    }
+
+    private RequestParams nextParams() {
+        RequestParams params = new RequestParams();
+        params.setPage(1);
+        params.setSize(5);
+        params.setLocation(locations[next]);
+        next = (next + 1) % locations.length;
+        searches.increment();
+        return params;
+    }
+
+    private HotelService service(SearchProperties searchProperties) {
+        HotelService service = newHotelService(client);
+        ReflectionTestUtils.setField(service, "searchCache", searchCache);
+        ReflectionTestUtils.setField(service, "searchProperties", searchProperties);
+        ReflectionTestUtils.setField(service, "facetIndex", new HotelFacetIndex());
+        return service;
+    }
+
+    private void createIndex() throws IOException {
+        CreateIndexRequest request = new CreateIndexRequest(INDEX);
+        request.source(MAPPING_TEMPLATE, XContentType.JSON);
+        request.settings(Settings.builder().put(request.settings())
+                .put("index.number_of_replicas", 0).put("index.refresh_interval", "-1"));
+        request.alias(new Alias("hotel"));
+        client.indices().create(request, RequestOptions.DEFAULT);
+    }
+
+    //酒店分布在上海市区约40km*40km的范围内
+    private void load() throws IOException {
+        Random random = new Random(42);
+        BulkRequest bulk = new BulkRequest();
+        for (int i = 1; i <= hotels; i++) {
+            String source = "{\"id\":" + i + ",\"name\":\"测试酒店" + i + "\",\"price\":" + (100 + random.nextInt(3000))
+                    + ",\"score\":" + (30 + random.nextInt(21)) + ",\"city\":\"上海\",\"location\":\""
+                    + (31.05 + random.nextDouble() * 0.36) + ", " + (121.25 + random.nextDouble() * 0.42) + "\"}";
+            bulk.add(new IndexRequest(INDEX).id(String.valueOf(i)).source(source, XContentType.JSON));
+            if (bulk.numberOfActions() == 5000 || i == hotels) {
+                client.bulk(bulk, RequestOptions.DEFAULT);
+                bulk = new BulkRequest();
+            }
+        }
+        client.indices().refresh(new RefreshRequest(INDEX), RequestOptions.DEFAULT);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(GeoCellBenchmark.class.getSimpleName())
+                .jvmArgsAppend("-Des.host=" + System.getProperty("es.host"))
+                .build()).run();
+    }
+}
@@ -0,0 +1,87 @@
+package cn.itcast.hotel.benchmark;
+
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.service.impl.HotelDocConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hotel转换为HotelDoc：构造方法与HotelDocConverter的对比。
+ * 每次调用转换200万行(循环使用1万个不同的Hotel，约一半的商圈包含/)，结果是每行的耗时；
+ * 加上-prof gc可以看到每行分配的内存
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HotelDocConverterBenchmark {
+    private static final int ROWS = 2_000_000;
+    private static final String[] BUSINESS = {"静安寺地区", "人民广场/南京路步行街", "首都机场/新国展地区", "虹桥地区",
+            "会展中心/CBD", "千岛湖镇", "果园环岛/通州区", "燕莎/朝阳公园商业区"};
+
+    private Hotel[] hotels;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        hotels = new Hotel[10000];
+        for (int i = 0; i < hotels.length; i++) {
+            Hotel hotel = new Hotel();
+            hotel.setId(100000L + i);
+            hotel.setName("测试酒店" + i);
+            hotel.setAddress("测试路" + random.nextInt(2000) + "号");
+            hotel.setPrice(100 + random.nextInt(3000));
+            hotel.setScore(30 + random.nextInt(21));
+            hotel.setBrand("如家");
+            hotel.setCity("上海");
+            hotel.setStarName("四钻");
+            hotel.setBusiness(BUSINESS[random.nextInt(BUSINESS.length)]);
+            hotel.setLatitude(String.valueOf(31 + random.nextDouble()));
+            hotel.setLongitude(String.valueOf(121 + random.nextDouble()));
+            hotel.setPic("https://m.tuniucdn.com/fb3/s1/2n9c/" + i + "_w200_h200_c1_t0.jpg");
+            hotels[i] = hotel;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void constructor(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            blackhole.consume(new HotelDoc(hotels[i % hotels.length]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void converter(Blackhole blackhole) {
+        for (int i = 0; i < ROWS; i++) {
+            blackhole.consume(HotelDocConverter.convert(hotels[i % hotels.length]));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HotelDocConverterBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
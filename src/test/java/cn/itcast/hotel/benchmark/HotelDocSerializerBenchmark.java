@@ -0,0 +1,94 @@
+package cn.itcast.hotel.benchmark;
+
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.service.impl.HotelDocSerializer;
+import com.alibaba.fastjson.JSON;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写入索引库前的序列化：fastjson生成String与直接写入复用缓冲区的对比。
+ * 每次调用序列化200万个文档(循环使用1万个不同的文档)，结果是每个文档的耗时；
+ * 加上-prof gc可以看到每个文档分配的内存
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class HotelDocSerializerBenchmark {
+    private static final int DOCS = 2_000_000;
+    private static final String[] BRANDS = {"7天酒店", "如家", "速8", "皇冠假日", "华美达", "万怡", "喜来登", "万豪", "和颐", "希尔顿"};
+    private static final String[] CITIES = {"上海", "北京", "深圳", "杭州"};
+
+    private HotelDoc[] hotelDocs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        hotelDocs = new HotelDoc[10000];
+        for (int i = 0; i < hotelDocs.length; i++) {
+            Hotel hotel = new Hotel();
+            hotel.setId(100000L + i);
+            hotel.setBrand(BRANDS[random.nextInt(BRANDS.length)]);
+            hotel.setName(hotel.getBrand() + "测试酒店" + i);
+            hotel.setAddress("测试路" + random.nextInt(2000) + "号");
+            hotel.setPrice(100 + random.nextInt(3000));
+            hotel.setScore(30 + random.nextInt(21));
+            hotel.setCity(CITIES[random.nextInt(CITIES.length)]);
+            hotel.setStarName("四钻");
+            hotel.setBusiness(random.nextBoolean() ? "静安寺地区" : "人民广场/南京路步行街");
+            hotel.setLatitude(String.valueOf(31 + random.nextDouble()));
+            hotel.setLongitude(String.valueOf(121 + random.nextDouble()));
+            hotel.setPic("https://m.tuniucdn.com/fb3/s1/2n9c/" + Long.toHexString(random.nextLong()) + "_w200_h200_c1_t0.jpg");
+            hotelDocs[i] = new HotelDoc(hotel);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCS)
+    public void fastjson(Blackhole blackhole) {
+        for (int i = 0; i < DOCS; i++) {
+            HotelDoc hotelDoc = hotelDocs[i % hotelDocs.length];
+            blackhole.consume(new IndexRequest("hotel").id(hotelDoc.getId().toString())
+                    .source(JSON.toJSONString(hotelDoc), XContentType.JSON));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DOCS)
+    public void serializer(Blackhole blackhole) {
+        for (int i = 0; i < DOCS; i++) {
+            HotelDoc hotelDoc = hotelDocs[i % hotelDocs.length];
+            blackhole.consume(new IndexRequest("hotel").id(hotelDoc.getId().toString())
+                    .source(HotelDocSerializer.toSource(hotelDoc), XContentType.JSON));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HotelDocSerializerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,93 @@
+package cn.itcast.hotel.benchmark;
+
+import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.pojo.Hotel;
+import com.baomidou.mybatisplus.core.conditions.AbstractWrapper;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 压测时代替tb_hotel的内存表。只实现应用用到的查询：
+ * 按id翻页读取(gt id、order by id、limit n)、按id查询和按id批量查询，其他方法抛出UnsupportedOperationException
+ */
+class InMemoryHotelMapper implements InvocationHandler {
+    private static final Pattern LIMIT = Pattern.compile("limit\\s+(\\d+)", Pattern.CASE_INSENSITIVE);
+
+    private final NavigableMap<Long, Hotel> table = new ConcurrentSkipListMap<>();
+
+    InMemoryHotelMapper(Collection<Hotel> hotels) {
+        for (Hotel hotel : hotels) {
+            table.put(hotel.getId(), hotel);
+        }
+    }
+
+    HotelMapper proxy() {
+        return (HotelMapper) Proxy.newProxyInstance(HotelMapper.class.getClassLoader(),
+                new Class<?>[]{HotelMapper.class}, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "selectList":
+                return selectList((AbstractWrapper<?, ?, ?>) args[0]);
+            case "selectById":
+                return table.get(((Number) args[0]).longValue());
+            case "selectBatchIds":
+                return selectBatchIds((Collection<?>) args[0]);
+            case "selectCount":
+                return table.size();
+            case "toString":
+                return "InMemoryHotelMapper(" + table.size() + ")";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                throw new UnsupportedOperationException("内存表不支持" + method.getName());
+        }
+    }
+
+    /**
+     * 唯一的参数是上一批最后的id，条数取自last("limit n")
+     */
+    private List<Hotel> selectList(AbstractWrapper<?, ?, ?> wrapper) {
+        long lastId = 0;
+        for (Map.Entry<String, Object> entry : wrapper.getParamNameValuePairs().entrySet()) {
+            if (entry.getValue() instanceof Number) {
+                lastId = ((Number) entry.getValue()).longValue();
+            }
+        }
+        Matcher matcher = LIMIT.matcher(wrapper.getSqlSegment());
+        int limit = matcher.find() ? Integer.parseInt(matcher.group(1)) : Integer.MAX_VALUE;
+        List<Hotel> hotels = new ArrayList<>(Math.min(limit, table.size()));
+        for (Hotel hotel : table.tailMap(lastId, false).values()) {
+            if (hotels.size() == limit) {
+                break;
+            }
+            hotels.add(hotel);
+        }
+        return hotels;
+    }
+
+    private List<Hotel> selectBatchIds(Collection<?> ids) {
+        List<Hotel> hotels = new ArrayList<>(ids.size());
+        for (Object id : ids) {
+            Hotel hotel = table.get(((Number) id).longValue());
+            if (hotel != null) {
+                hotels.add(hotel);
+            }
+        }
+        return hotels;
+    }
+}
@@ -0,0 +1,405 @@
+package cn.itcast.hotel.benchmark;
+
+import cn.itcast.hotel.EsStubServer;
+import cn.itcast.hotel.HotelDemoApplication;
+import cn.itcast.hotel.mapper.HotelMapper;
+import cn.itcast.hotel.pojo.Hotel;
+import cn.itcast.hotel.pojo.RequestParams;
+import com.alibaba.fastjson.JSON;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import lombok.Data;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.mockito.Mockito;
+import org.mockito.stubbing.Answer;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.util.StreamUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 端到端压测：启动完整的应用，索引库换成本地模拟的ES服务(可配置响应延迟)，tb_hotel换成内存表，
+ * RabbitMQ换成不连接任何服务的模拟连接，按比例请求/hotel/list、/hotel/filters、/hotel/suggestion，
+ * 输出每个接口的吞吐量和p50/p99/p999延迟，完整的延迟分布写入target/load/接口名.hgrm。
+ * 运行：mvn test-compile后用测试classpath运行本类，参数通过系统属性指定，例如
+ * -Dload.threads=64 -Dload.durationSeconds=60 -Dload.esLatencyMinMs=5 -Dload.esLatencyMaxMs=20 -Dload.rate=2000
+ */
+public class LoadTestHarness {
+    public static final String LIST = "list";
+    public static final String FILTERS = "filters";
+    public static final String SUGGESTION = "suggestion";
+
+    private static final String[] CITIES = {"上海", "北京", "深圳", "杭州", "广州", "成都"};
+    private static final String[] BRANDS = {"如家", "汉庭", "7天酒店", "希尔顿", "万豪", "皇冠假日", "速8", "锦江之星", "华美达", "和颐"};
+    private static final String[] STARS = {"二钻", "三钻", "四钻", "五钻", "四星级", "五星级"};
+    private static final String[] BUSINESS = {"静安寺地区", "人民广场/南京路步行街", "虹桥地区", "陆家嘴/浦东",
+            "首都机场/新国展地区", "国贸/CBD", "三里屯/工体", "华强北/东门"};
+    private static final String[] KEYS = {"如家", "希尔顿", "外滩", "机场", "快捷", "商务", "三里屯", "陆家嘴", "亲子", "温泉"};
+    private static final String[] PREFIXES = {"r", "rj", "x", "xe", "s", "sl", "w", "wt", "h", "hq", "j", "jc", "如", "希", "外"};
+    //价格区间与页面上的选项一致
+    private static final int[][] PRICES = {{0, 99}, {100, 299}, {300, 599}, {600, 1499}, {1500, 999999}};
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.fromSystemProperties();
+        Report report = run(options);
+        report.print(System.out);
+        report.writeHistograms(new File(options.getHistogramDir()));
+    }
+
+    public static Report run(Options options) throws Exception {
+        //HttpURLConnection默认每个地址只保留5个空闲连接，线程多时会不断新建连接
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(options.getThreads()));
+        }
+        try (EsStubServer es = new EsStubServer()
+                .respond("_search", "/es/search-page-response.json")
+                .respondIf("_search", "\"suggest\"", "/es/suggest-response.json")
+                .latency(options.getEsLatencyMinMs() * 1000L, options.getEsLatencyMaxMs() * 1000L)) {
+            InMemoryHotelMapper table = new InMemoryHotelMapper(hotels(options.getHotels(), options.getSeed()));
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(HotelDemoApplication.class, StandIns.class)
+                    .initializers(ctx -> ctx.getBeanFactory().registerSingleton("inMemoryHotelMapper", table))
+                    .run(arguments(options, es));
+            try {
+                String baseUrl = "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port");
+                return drive(options, baseUrl);
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    /**
+     * 预热后清空统计，再正式压测；指定了rate时按固定速率发送，延迟从计划发送的时间算起，排队等待也计入延迟
+     */
+    private static Report drive(Options options, String baseUrl) throws InterruptedException {
+        Map<String, Recorder> recorders = new LinkedHashMap<>();
+        Map<String, LongAdder> errors = new LinkedHashMap<>();
+        for (String endpoint : new String[]{LIST, FILTERS, SUGGESTION}) {
+            recorders.put(endpoint, new Recorder(3));
+            errors.put(endpoint, new LongAdder());
+        }
+        long warmupNanos = TimeUnit.SECONDS.toNanos(options.getWarmupSeconds());
+        long durationNanos = TimeUnit.SECONDS.toNanos(options.getDurationSeconds());
+        long start = System.nanoTime();
+        long measureStart = start + warmupNanos;
+        long end = measureStart + durationNanos;
+        //每个线程的发送间隔，0表示收到响应后立即发送下一个
+        long intervalNanos = options.getRate() > 0 ? TimeUnit.SECONDS.toNanos(options.getThreads()) / options.getRate() : 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(options.getThreads());
+        for (int i = 0; i < options.getThreads(); i++) {
+            Random random = new Random(options.getSeed() + i);
+            executor.execute(() -> {
+                long intended = System.nanoTime();
+                while (true) {
+                    long now = System.nanoTime();
+                    if (now >= end) {
+                        break;
+                    }
+                    if (intervalNanos > 0 && intended > now) {
+                        sleepNanos(intended - now);
+                    }
+                    long sendAt = intervalNanos > 0 ? intended : System.nanoTime();
+                    String endpoint = pickEndpoint(options, random);
+                    boolean ok = send(baseUrl, endpoint, random);
+                    long finished = System.nanoTime();
+                    recorders.get(endpoint).recordValue(TimeUnit.NANOSECONDS.toMicros(finished - sendAt));
+                    if (!ok && sendAt >= measureStart) {
+                        errors.get(endpoint).increment();
+                    }
+                    intended += intervalNanos;
+                }
+            });
+        }
+        //预热期间的统计丢弃
+        sleepNanos(measureStart - System.nanoTime());
+        for (Map.Entry<String, Recorder> entry : recorders.entrySet()) {
+            entry.getValue().getIntervalHistogram();
+            errors.get(entry.getKey()).reset();
+        }
+        executor.shutdown();
+        executor.awaitTermination(durationNanos + TimeUnit.SECONDS.toNanos(30), TimeUnit.NANOSECONDS);
+
+        Report report = new Report();
+        report.setDurationNanos(System.nanoTime() - measureStart);
+        for (Map.Entry<String, Recorder> entry : recorders.entrySet()) {
+            report.getHistograms().put(entry.getKey(), entry.getValue().getIntervalHistogram());
+            report.getErrors().put(entry.getKey(), errors.get(entry.getKey()).sum());
+        }
+        return report;
+    }
+
+    private static String pickEndpoint(Options options, Random random) {
+        int total = options.getListWeight() + options.getFiltersWeight() + options.getSuggestionWeight();
+        int n = random.nextInt(total);
+        if (n < options.getListWeight()) {
+            return LIST;
+        }
+        return n < options.getListWeight() + options.getFiltersWeight() ? FILTERS : SUGGESTION;
+    }
+
+    private static boolean send(String baseUrl, String endpoint, Random random) {
+        try {
+            HttpURLConnection connection;
+            if (SUGGESTION.equals(endpoint)) {
+                String prefix = PREFIXES[random.nextInt(PREFIXES.length)];
+                connection = (HttpURLConnection) new URL(baseUrl + "/hotel/suggestion?key="
+                        + URLEncoder.encode(prefix, "UTF-8")).openConnection();
+            } else {
+                RequestParams params = requestParams(random, LIST.equals(endpoint));
+                connection = (HttpURLConnection) new URL(baseUrl + "/hotel/" + endpoint).openConnection();
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setRequestProperty("Content-Type", "application/json");
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(JSON.toJSONString(params).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            int status = connection.getResponseCode();
+            //读完响应体，连接才能复用
+            try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null) {
+                    StreamUtils.drain(in);
+                }
+            }
+            return status == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 模拟页面上的操作：大多数请求只选了少量条件，翻页和排序集中在前几页和默认排序
+     */
+    static RequestParams requestParams(Random random, boolean list) {
+        RequestParams params = new RequestParams();
+        params.setKey(random.nextInt(10) < 4 ? "" : KEYS[random.nextInt(KEYS.length)]);
+        if (random.nextInt(10) < 5) {
+            params.setCity(CITIES[random.nextInt(CITIES.length)]);
+        }
+        if (random.nextInt(10) < 2) {
+            params.setBrand(BRANDS[random.nextInt(BRANDS.length)]);
+        }
+        if (random.nextInt(100) < 15) {
+            params.setStarName(STARS[random.nextInt(STARS.length)]);
+        }
+        if (random.nextInt(10) < 2) {
+            int[] price = PRICES[random.nextInt(PRICES.length)];
+            params.setMinPrice(price[0]);
+            params.setMaxPrice(price[1]);
+        }
+        if (list) {
+            int sort = random.nextInt(100);
+            params.setSortBy(sort < 60 ? "default" : sort < 85 ? "score" : "price");
+            int page = random.nextInt(100);
+            params.setPage(page < 80 ? 1 : page < 95 ? 2 + random.nextInt(2) : 4 + random.nextInt(7));
+            params.setSize(5);
+            if (random.nextInt(10) < 4) {
+                params.setLocation(String.format("%.6f, %.6f", 31.1 + random.nextDouble() * 0.2,
+                        121.35 + random.nextDouble() * 0.2));
+            }
+        }
+        return params;
+    }
+
+    static List<Hotel> hotels(int count, long seed) {
+        Random random = new Random(seed);
+        List<Hotel> hotels = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Hotel hotel = new Hotel();
+            hotel.setId(10000L + i);
+            hotel.setBrand(BRANDS[random.nextInt(BRANDS.length)]);
+            hotel.setCity(CITIES[random.nextInt(CITIES.length)]);
+            hotel.setName(hotel.getCity() + hotel.getBrand() + "酒店" + i);
+            hotel.setAddress("测试路" + random.nextInt(2000) + "号");
+            hotel.setPrice(100 + random.nextInt(3000));
+            hotel.setScore(30 + random.nextInt(21));
+            hotel.setStarName(STARS[random.nextInt(STARS.length)]);
+            hotel.setBusiness(BUSINESS[random.nextInt(BUSINESS.length)]);
+            hotel.setLatitude(String.valueOf(31 + random.nextDouble()));
+            hotel.setLongitude(String.valueOf(121 + random.nextDouble()));
+            hotel.setPic("https://m.tuniucdn.com/fb3/s1/2n9c/" + i + "_w200_h200_c1_t0.jpg");
+            hotels.add(hotel);
+        }
+        return hotels;
+    }
+
+    //命令行参数优先于application.yaml
+    private static String[] arguments(Options options, EsStubServer es) {
+        return new String[]{
+                "--server.port=0",
+                "--hotel.elasticsearch.hosts=http://" + es.address(),
+                "--hotel.suggestion.local-enabled=" + options.isLocalIndexes(),
+                "--hotel.facet.local-enabled=" + options.isLocalIndexes(),
+                //录制的响应与内存表的数据不一致，不做核对
+                "--hotel.facet.reconcile-interval-ms=" + Long.MAX_VALUE / 2,
+                "--logging.level.cn.itcast=info"
+        };
+    }
+
+    private static void sleepNanos(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 代替外部服务的bean，作为启动类之外的配置源传入，不会被组件扫描到
+     */
+    static class StandIns {
+
+        @Bean
+        static BeanPostProcessor hotelMapperStandIn(InMemoryHotelMapper inMemoryHotelMapper) {
+            HotelMapper proxy = inMemoryHotelMapper.proxy();
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    return bean instanceof HotelMapper ? proxy : bean;
+                }
+            };
+        }
+
+        /**
+         * 存在ConnectionFactory时不再自动配置RabbitMQ连接。
+         * 模拟的连接和channel始终打开，所有操作直接返回，监听器启动后收不到消息
+         */
+        @Bean
+        CachingConnectionFactory connectionFactory() throws IOException {
+            Connection connection = Mockito.mock(Connection.class, standIn());
+            Channel channel = Mockito.mock(Channel.class, standIn());
+            Mockito.doReturn(channel).when(connection).createChannel();
+            Mockito.doReturn(channel).when(connection).createChannel(Mockito.anyInt());
+            com.rabbitmq.client.ConnectionFactory rabbitConnectionFactory =
+                    Mockito.mock(com.rabbitmq.client.ConnectionFactory.class, invocation ->
+                            Connection.class.equals(invocation.getMethod().getReturnType())
+                                    ? connection : Mockito.RETURNS_DEFAULTS.answer(invocation));
+            return new CachingConnectionFactory(rabbitConnectionFactory);
+        }
+
+        //isOpen返回true，返回字符串的方法(消费者标签、队列名)返回固定值，声明队列等返回的对象也是模拟的
+        private static Answer<Object> standIn() {
+            return invocation -> {
+                Class<?> type = invocation.getMethod().getReturnType();
+                if ("isOpen".equals(invocation.getMethod().getName())) {
+                    return true;
+                }
+                if (String.class.equals(type)) {
+                    return "load-test";
+                }
+                if (type.isInterface() && type.getName().startsWith("com.rabbitmq.client.AMQP")) {
+                    return Mockito.mock(type, standIn());
+                }
+                return Mockito.RETURNS_DEFAULTS.answer(invocation);
+            };
+        }
+    }
+
+    @Data
+    public static class Options {
+        //内存表中的酒店数量
+        private int hotels = 5000;
+        //模拟ES的响应延迟，在最小值和最大值之间均匀分布
+        private int esLatencyMinMs = 2;
+        private int esLatencyMaxMs = 8;
+        private int threads = 32;
+        private int warmupSeconds = 5;
+        private int durationSeconds = 30;
+        //每秒总请求数，0表示每个线程收到响应后立即发送下一个
+        private int rate = 0;
+        //三个接口的请求比例
+        private int listWeight = 70;
+        private int filtersWeight = 20;
+        private int suggestionWeight = 10;
+        //使用本地前缀树和本地过滤项计数，启动时从内存表加载
+        private boolean localIndexes = false;
+        private long seed = 42;
+        private String histogramDir = "target/load";
+
+        static Options fromSystemProperties() {
+            Options options = new Options();
+            options.setHotels(Integer.getInteger("load.hotels", options.getHotels()));
+            options.setEsLatencyMinMs(Integer.getInteger("load.esLatencyMinMs", options.getEsLatencyMinMs()));
+            options.setEsLatencyMaxMs(Integer.getInteger("load.esLatencyMaxMs", options.getEsLatencyMaxMs()));
+            options.setThreads(Integer.getInteger("load.threads", options.getThreads()));
+            options.setWarmupSeconds(Integer.getInteger("load.warmupSeconds", options.getWarmupSeconds()));
+            options.setDurationSeconds(Integer.getInteger("load.durationSeconds", options.getDurationSeconds()));
+            options.setRate(Integer.getInteger("load.rate", options.getRate()));
+            options.setListWeight(Integer.getInteger("load.listWeight", options.getListWeight()));
+            options.setFiltersWeight(Integer.getInteger("load.filtersWeight", options.getFiltersWeight()));
+            options.setSuggestionWeight(Integer.getInteger("load.suggestionWeight", options.getSuggestionWeight()));
+            options.setLocalIndexes(Boolean.getBoolean("load.localIndexes"));
+            options.setSeed(Long.getLong("load.seed", options.getSeed()));
+            options.setHistogramDir(System.getProperty("load.histogramDir", options.getHistogramDir()));
+            return options;
+        }
+    }
+
+    /**
+     * 每个接口的延迟分布(微秒)和失败次数
+     */
+    @Data
+    public static class Report {
+        private long durationNanos;
+        private Map<String, Histogram> histograms = new LinkedHashMap<>();
+        private Map<String, Long> errors = new LinkedHashMap<>();
+
+        public double throughput(String endpoint) {
+            return histograms.get(endpoint).getTotalCount() * 1e9 / durationNanos;
+        }
+
+        public void print(PrintStream out) {
+            out.printf("%-12s %10s %8s %10s %10s %10s %10s %10s%n",
+                    "接口", "请求数", "失败", "吞吐量/s", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)");
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                Histogram histogram = entry.getValue();
+                out.printf("%-12s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n", entry.getKey(),
+                        histogram.getTotalCount(), errors.get(entry.getKey()), throughput(entry.getKey()),
+                        histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+                        histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMaxValue() / 1000.0);
+            }
+        }
+
+        /**
+         * 完整的延迟分布，可以用HdrHistogram的绘图工具打开对比
+         */
+        public void writeHistograms(File dir) throws IOException {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("无法创建目录" + dir);
+            }
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                try (PrintStream out = new PrintStream(new FileOutputStream(new File(dir, entry.getKey() + ".hgrm")),
+                        false, "UTF-8")) {
+                    entry.getValue().outputPercentileDistribution(out, 1000.0);
+                }
+            }
+        }
+    }
+}
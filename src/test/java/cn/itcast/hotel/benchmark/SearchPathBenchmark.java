@@ -0,0 +1,156 @@
+package cn.itcast.hotel.benchmark;
+
+import cn.itcast.hotel.config.SearchProperties;
+import cn.itcast.hotel.pojo.PageResult;
+import cn.itcast.hotel.pojo.RequestParams;
+import cn.itcast.hotel.service.impl.HotelService;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 酒店搜索的CPU热点：构建查询、序列化请求体、解析响应、处理命中和聚合结果。
+ * 响应使用es/search-page-response.json中录制的一页结果(20条命中，按价格和距离排序，带过滤项聚合)，不需要索引库。
+ * 私有方法在setUp中取出Method后直接调用，反射的开销相对每次操作可以忽略
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchPathBenchmark {
+    private static final String PAGE_RESPONSE = "/es/search-page-response.json";
+
+    private HotelService hotelService;
+    private Method buildSearchRequest;
+    private Method handleResponse;
+    private Method handleAggregations;
+    private Method getAggByName;
+    private NamedXContentRegistry registry;
+    private RequestParams params;
+    private byte[] responseBytes;
+    private SearchResponse response;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        hotelService = new HotelService();
+        ReflectionTestUtils.setField(hotelService, "searchProperties", new SearchProperties());
+        buildSearchRequest = method("buildSearchRequest", RequestParams.class);
+        handleResponse = method("handleResponse", RequestParams.class, SearchResponse.class);
+        handleAggregations = method("handleAggregations", Aggregations.class);
+        getAggByName = method("getAggByName", Aggregations.class, String.class);
+        //与RestHighLevelClient解析响应时使用的相同
+        List<NamedXContentRegistry.Entry> entries =
+                ReflectionTestUtils.invokeMethod(RestHighLevelClient.class, "getDefaultNamedXContents");
+        registry = new NamedXContentRegistry(entries);
+
+        //关键字+城市+价格区间，按价格排序，带位置，第2页
+        params = new RequestParams();
+        params.setKey("希尔顿");
+        params.setCity("上海");
+        params.setMinPrice(200);
+        params.setMaxPrice(1000);
+        params.setSortBy("price");
+        params.setLocation("31.21, 121.45");
+        params.setPage(2);
+        params.setSize(20);
+
+        try (InputStream in = SearchPathBenchmark.class.getResourceAsStream(PAGE_RESPONSE)) {
+            responseBytes = StreamUtils.copyToByteArray(in);
+        }
+        response = parseResponse();
+        PageResult pageResult = handleResponse();
+        if (pageResult.getHotels().size() != 20 || pageResult.getHotels().get(0).getDistance() == null) {
+            throw new IllegalStateException("录制的响应没有按预期解析：" + pageResult);
+        }
+    }
+
+    @Benchmark
+    public SearchRequest buildSearchRequest() throws Exception {
+        return (SearchRequest) buildSearchRequest.invoke(hotelService, params);
+    }
+
+    /**
+     * 构建并序列化为发送给索引库的请求体
+     */
+    @Benchmark
+    public BytesReference searchRequestBody() throws Exception {
+        SearchRequest request = (SearchRequest) buildSearchRequest.invoke(hotelService, params);
+        return XContentHelper.toXContent(request.source(), XContentType.JSON, false);
+    }
+
+    /**
+     * 响应体解析为SearchResponse，即RestHighLevelClient收到响应后的工作
+     */
+    @Benchmark
+    public SearchResponse parseResponse() throws IOException {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(registry,
+                DeprecationHandler.IGNORE_DEPRECATIONS, responseBytes)) {
+            return SearchResponse.fromXContent(parser);
+        }
+    }
+
+    @Benchmark
+    public PageResult handleResponse() throws Exception {
+        return (PageResult) handleResponse.invoke(hotelService, params, response);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Map<String, List<String>> handleAggregations() throws Exception {
+        return (Map<String, List<String>>) handleAggregations.invoke(hotelService, response.getAggregations());
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<String> getAggByName() throws Exception {
+        return (List<String>) getAggByName.invoke(hotelService, response.getAggregations(), "brandAgg");
+    }
+
+    private static Method method(String name, Class<?>... parameterTypes) {
+        Method method = ReflectionUtils.findMethod(HotelService.class, name, parameterTypes);
+        if (method == null) {
+            throw new IllegalStateException("HotelService中没有方法" + name);
+        }
+        ReflectionUtils.makeAccessible(method);
+        return method;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SearchPathBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,143 @@
+package cn.itcast.hotel.benchmark;
+
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
+import org.elasticsearch.action.admin.indices.forcemerge.ForceMergeRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static cn.itcast.hotel.constants.HotelConstants.MAPPING_TEMPLATE;
+
+/**
+ * 按价格排序的查询：索引按价格排序存储前后的对比。
+ * 需要真实的索引库，运行时指定-Des.host=192.168.80.128:9200，
+ * 会创建两个临时索引并导入相同的模拟数据，结束后删除
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SortBenchmark {
+    private static final String UNSORTED_INDEX = "hotel_bench_unsorted";
+    private static final String SORTED_INDEX = "hotel_bench_sorted";
+    private static final String[] CITIES = {"上海", "北京", "深圳", "杭州"};
+    private static final String[] BRANDS = {"7天酒店", "如家", "速8", "皇冠假日", "华美达", "万怡", "喜来登", "万豪", "和颐", "希尔顿"};
+
+    @Param({"500000"})
+    private int hotels;
+
+    private RestHighLevelClient client;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String host = System.getProperty("es.host");
+        if (host == null) {
+            throw new IllegalStateException("需要真实的索引库，请指定-Des.host=ip:9200");
+        }
+        client = new RestHighLevelClient(RestClient.builder(HttpHost.create(host)));
+        createIndex(UNSORTED_INDEX, false);
+        createIndex(SORTED_INDEX, true);
+        load();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.indices().delete(new DeleteIndexRequest(UNSORTED_INDEX, SORTED_INDEX), RequestOptions.DEFAULT);
+        client.close();
+    }
+
+    @Benchmark
+    public SearchResponse priceSortUnsortedIndex() throws IOException {
+        return client.search(priceSortRequest(UNSORTED_INDEX), RequestOptions.DEFAULT);
+    }
+
+    @Benchmark
+    public SearchResponse priceSortSortedIndex() throws IOException {
+        return client.search(priceSortRequest(SORTED_INDEX), RequestOptions.DEFAULT);
+    }
+
+    //与列表页按价格排序的查询相同：城市过滤，第一页5条
+    private SearchRequest priceSortRequest(String index) {
+        SearchRequest request = new SearchRequest(index);
+        request.source().query(QueryBuilders.boolQuery().filter(QueryBuilders.termQuery("city", "上海")))
+                .sort(SortBuilders.fieldSort("price").order(SortOrder.ASC))
+                .size(5);
+        return request;
+    }
+
+    private void createIndex(String index, boolean sorted) throws IOException {
+        CreateIndexRequest request = new CreateIndexRequest(index);
+        request.source(MAPPING_TEMPLATE, XContentType.JSON);
+        Settings.Builder settings = Settings.builder().put(request.settings());
+        if (!sorted) {
+            settings.remove("index.sort.field");
+            settings.remove("index.sort.order");
+        }
+        request.settings(settings.put("index.number_of_replicas", 0).put("index.refresh_interval", "-1"));
+        client.indices().create(request, RequestOptions.DEFAULT);
+    }
+
+    private void load() throws IOException {
+        Random random = new Random(42);
+        BulkRequest unsorted = new BulkRequest();
+        BulkRequest sorted = new BulkRequest();
+        for (int i = 1; i <= hotels; i++) {
+            String source = "{\"id\":" + i + ",\"name\":\"测试酒店" + i + "\",\"price\":" + (100 + random.nextInt(3000))
+                    + ",\"score\":" + (30 + random.nextInt(21)) + ",\"city\":\"" + CITIES[random.nextInt(CITIES.length)]
+                    + "\",\"brand\":\"" + BRANDS[random.nextInt(BRANDS.length)] + "\",\"location\":\""
+                    + (31 + random.nextDouble()) + ", " + (121 + random.nextDouble()) + "\"}";
+            unsorted.add(new IndexRequest(UNSORTED_INDEX).id(String.valueOf(i)).source(source, XContentType.JSON));
+            sorted.add(new IndexRequest(SORTED_INDEX).id(String.valueOf(i)).source(source, XContentType.JSON));
+            if (unsorted.numberOfActions() == 5000 || i == hotels) {
+                client.bulk(unsorted, RequestOptions.DEFAULT);
+                client.bulk(sorted, RequestOptions.DEFAULT);
+                unsorted = new BulkRequest();
+                sorted = new BulkRequest();
+            }
+        }
+        client.indices().refresh(new RefreshRequest(UNSORTED_INDEX, SORTED_INDEX), RequestOptions.DEFAULT);
+        client.indices().forcemerge(new ForceMergeRequest(UNSORTED_INDEX, SORTED_INDEX).maxNumSegments(1),
+                RequestOptions.DEFAULT);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SortBenchmark.class.getSimpleName())
+                .jvmArgsAppend("-Des.host=" + System.getProperty("es.host"))
+                .build()).run();
+    }
+}
@@ -0,0 +1,144 @@
+package cn.itcast.hotel.benchmark;
+
+import cn.itcast.hotel.EsStubServer;
+import cn.itcast.hotel.config.SuggestionProperties;
+import cn.itcast.hotel.pojo.HotelChangedEvent;
+import cn.itcast.hotel.pojo.HotelDoc;
+import cn.itcast.hotel.service.impl.HotelService;
+import cn.itcast.hotel.service.impl.HotelSuggestionIndex;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static cn.itcast.hotel.HotelServiceFixtures.newHotelService;
+
+/**
+ * 自动补全：本地前缀树与索引库查询的对比。
+ * 默认请求本地模拟的ES服务，只包含HTTP往返和解析的开销；
+ * 指定-Des.host=192.168.80.128:9200时请求真实的索引库。
+ * 运行：在IDE中执行main方法，或mvn test-compile后用测试classpath运行本类
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SuggestionBenchmark {
+    private static final String[] BRANDS = {"如家", "汉庭", "7天", "希尔顿", "万豪", "皇冠假日", "速8", "锦江之星", "华美达", "和颐"};
+    private static final String[] AREAS = {"三里屯", "国贸", "望京", "陆家嘴", "外滩", "人民广场", "首都机场", "虹桥",
+            "中关村", "西单", "王府井", "静安寺", "徐家汇", "五道口", "天河", "珠江新城", "春熙路", "西湖"};
+
+    @Param({"10000"})
+    private int hotels;
+
+    private EsStubServer es;
+    private RestHighLevelClient client;
+    //使用本地前缀树
+    private HotelService localService;
+    //本地前缀树未加载，全部查询索引库
+    private HotelService esService;
+    private String[] prefixes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String host = System.getProperty("es.host");
+        if (host == null) {
+            es = new EsStubServer().respond("_search", "/es/suggest-response.json");
+            client = es.client();
+        } else {
+            client = new RestHighLevelClient(RestClient.builder(HttpHost.create(host)));
+        }
+
+        SuggestionProperties properties = new SuggestionProperties();
+        properties.setLocalEnabled(true);
+        HotelSuggestionIndex suggestionIndex = new HotelSuggestionIndex();
+        ReflectionTestUtils.setField(suggestionIndex, "suggestionProperties", properties);
+        ReflectionTestUtils.setField(suggestionIndex, "ready", true);
+        Random random = new Random(42);
+        List<HotelDoc> docs = new ArrayList<>(hotels);
+        for (int i = 0; i < hotels; i++) {
+            HotelDoc hotelDoc = new HotelDoc();
+            hotelDoc.setId((long) i);
+            List<String> suggestion = new ArrayList<>();
+            suggestion.add(BRANDS[random.nextInt(BRANDS.length)]);
+            //加上编号，让补全词的数量接近真实数据
+            suggestion.add(AREAS[random.nextInt(AREAS.length)] + (i % 500));
+            suggestion.add(AREAS[random.nextInt(AREAS.length)]);
+            hotelDoc.setSuggestion(suggestion);
+            docs.add(hotelDoc);
+        }
+        suggestionIndex.onHotelChanged(new HotelChangedEvent(docs, Collections.emptyList()));
+
+        localService = newHotelService(client);
+        ReflectionTestUtils.setField(localService, "suggestionIndex", suggestionIndex);
+        esService = newHotelService(client);
+        ReflectionTestUtils.setField(esService, "suggestionIndex", new HotelSuggestionIndex());
+
+        //模拟逐字输入
+        List<String> list = new ArrayList<>();
+        for (String area : AREAS) {
+            for (int i = 1; i <= area.length(); i++) {
+                list.add(area.substring(0, i));
+            }
+        }
+        prefixes = list.toArray(new String[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        if (es != null) {
+            es.close();
+        }
+    }
+
+    @Benchmark
+    public List<String> local() {
+        return localService.getSuggestions(nextPrefix());
+    }
+
+    @Benchmark
+    public List<String> elasticsearch() {
+        return esService.getSuggestions(nextPrefix());
+    }
+
+    private String nextPrefix() {
+        String prefix = prefixes[next];
+        next = (next + 1) % prefixes.length;
+        return prefix;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SuggestionBenchmark.class.getSimpleName())
+                .jvmArgsAppend(System.getProperty("es.host") == null
+                        ? new String[0] : new String[]{"-Des.host=" + System.getProperty("es.host")})
+                .build()).run();
+    }
+}